@@ -0,0 +1,49 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+
+// Fixed inputs for the benchmarks. Each combination of parameters always
+// produces the same file, which is generated once and then reused across runs.
+class BenchmarkData {
+    static final String MEASUREMENTS_TXT = "measurements.txt";
+    private static final long SEED = 1_000_000_000L;
+
+    static Path measurements(int stationCount, String nameLengths, int rowCount) throws IOException {
+        var path = Path.of(String.format("measurements-%d-%s-%d.txt", stationCount, nameLengths, rowCount));
+        if (!Files.exists(path)) {
+            var tmpPath = Path.of(path + ".tmp");
+            generator(stationCount, nameLengths).write(tmpPath, rowCount);
+            Files.move(tmpPath, path);
+        }
+        return path;
+    }
+
+    // Blog1..Blog5 always read measurements.txt from the working directory.
+    static void linkAsMeasurementsTxt(Path path) throws IOException {
+        var link = Path.of(MEASUREMENTS_TXT);
+        if (Files.exists(link, NOFOLLOW_LINKS) && !Files.isSymbolicLink(link)) {
+            throw new IOException("Refusing to replace " + link.toAbsolutePath() + ", run from another directory");
+        }
+        Files.deleteIfExists(link);
+        Files.createSymbolicLink(link, path.getFileName());
+    }
+
+    static byte[] lines(int stationCount, String nameLengths, int rowCount) {
+        var out = new ByteArrayOutputStream();
+        try {
+            generator(stationCount, nameLengths).write(out, rowCount);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static CreateMeasurements generator(int stationCount, String nameLengths) {
+        return new CreateMeasurements().seed(SEED).stationCount(stationCount).nameLengths(nameLengths);
+    }
+}
@@ -0,0 +1,92 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+// End-to-end runs of each blog post's solution. Blog3..Blog5 have a fixed-size
+// hashtable of 2048/4096 slots, so the station counts stay below that. Runs on
+// larger keyspaces are in LargeKeyspaceBenchmark.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class BlogBenchmark {
+    @Param({"413", "1000"})
+    int stationCount;
+
+    @Param({"official", "10k"})
+    String nameLengths;
+
+    @Param("10000000")
+    int rowCount;
+
+    private Path input;
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        input = BenchmarkData.measurements(stationCount, nameLengths, rowCount);
+        BenchmarkData.linkAsMeasurementsTxt(input);
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public void blog1() throws Exception {
+        Blog1.calculate();
+    }
+
+    @Benchmark
+    public void blog2() throws Exception {
+        Blog2.calculate();
+    }
+
+    @Benchmark
+    public void blog3() throws Exception {
+        Blog3.calculate();
+    }
+
+    @Benchmark
+    public void blog4() throws Exception {
+        Blog4.calculate();
+    }
+
+    @Benchmark
+    public void blog5() throws Exception {
+        Blog5.calculate();
+    }
+
+    // Blog6 without the Launcher child process
+    @Benchmark
+    public TreeMap<String, StationStats> blog6() throws Exception {
+        return new Aggregator().aggregate(input);
+    }
+
+    // Blog6 parsing three lines of each chunk in lockstep
+    @Benchmark
+    public TreeMap<String, StationStats> blog6Interleaved() throws Exception {
+        return new Aggregator().interleaved(true).aggregate(input);
+    }
+}
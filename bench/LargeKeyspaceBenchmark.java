@@ -0,0 +1,82 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+// End-to-end runs on keyspaces that only Blog1, Blog2 and the growable table in
+// Blog6 can handle, and Blog6 with the Vector API engine, which is meant for these
+// long names.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "--add-modules", "jdk.incubator.vector"})
+public class LargeKeyspaceBenchmark {
+    @Param({"10000", "100000"})
+    int stationCount;
+
+    @Param("10k")
+    String nameLengths;
+
+    @Param("10000000")
+    int rowCount;
+
+    private Path input;
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        input = BenchmarkData.measurements(stationCount, nameLengths, rowCount);
+        BenchmarkData.linkAsMeasurementsTxt(input);
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public void blog1() throws Exception {
+        Blog1.calculate();
+    }
+
+    @Benchmark
+    public void blog2() throws Exception {
+        Blog2.calculate();
+    }
+
+    @Benchmark
+    public TreeMap<String, StationStats> blog6() throws Exception {
+        return new Aggregator().aggregate(input);
+    }
+
+    // Blog6 touching the table slots a few lines ahead
+    @Benchmark
+    public TreeMap<String, StationStats> blog6Prefetch() throws Exception {
+        return new Aggregator().prefetch(true).aggregate(input);
+    }
+
+    // Same as blog6 if the hardware has no 256-bit vectors
+    @Benchmark
+    public TreeMap<String, StationStats> blog6Vector() throws Exception {
+        return new Aggregator().engine(Aggregator.Engine.VECTOR).aggregate(input);
+    }
+}
@@ -0,0 +1,226 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import sun.misc.Unsafe;
+
+import java.util.concurrent.TimeUnit;
+
+// Microbenchmarks of the SWAR primitives. Every benchmark method handles LINE_COUNT
+// lines taken from a generated input, so the reported time is per line.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class SwarBenchmark {
+    private static final Unsafe UNSAFE = Aggregator.UNSAFE;
+
+    static final int LINE_COUNT = 1024;
+
+    @Param({"official", "10k"})
+    String nameLengths;
+
+    private long inputBase;
+    private final long[] nameStarts = new long[LINE_COUNT];
+    private final long[] nameWords = new long[LINE_COUNT];
+    private final long[] matchBits = new long[LINE_COUNT];
+    private final long[] tempWords = new long[LINE_COUNT];
+    private final int[] dotPositions = new int[LINE_COUNT];
+
+    // Name as seen by Blog6: the first two words, masked if the name is shorter than
+    // 16 bytes, the length including the semicolon, and the masked last word
+    private final long[] hashes = new long[LINE_COUNT];
+    private final long[] nameWords0 = new long[LINE_COUNT];
+    private final long[] nameWords1 = new long[LINE_COUNT];
+    private final long[] lastNameWords = new long[LINE_COUNT];
+    private final int[] nameLens = new int[LINE_COUNT];
+
+    private final Blog4.StatsAcc[] blog4Accs = new Blog4.StatsAcc[LINE_COUNT];
+    private StationTable table;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        var lines = BenchmarkData.lines(413, nameLengths, LINE_COUNT);
+        inputBase = UNSAFE.allocateMemory(lines.length + Aggregator.TAIL_PADDING);
+        UNSAFE.setMemory(inputBase, lines.length + Aggregator.TAIL_PADDING, (byte) 0);
+        for (int i = 0; i < lines.length; i++) {
+            UNSAFE.putByte(inputBase + i, lines[i]);
+        }
+        table = new StationTable();
+        long cursor = inputBase;
+        for (int i = 0; i < LINE_COUNT; i++) {
+            nameStarts[i] = cursor;
+            nameWords[i] = UNSAFE.getLong(cursor);
+            matchBits[i] = Aggregator.semicolonMatchBits(nameWords[i]);
+            long semicolonPos = cursor;
+            while (UNSAFE.getByte(semicolonPos) != ';') {
+                semicolonPos++;
+            }
+            int nameLen = (int) (semicolonPos - cursor) + 1;
+            nameLens[i] = nameLen;
+            tempWords[i] = UNSAFE.getLong(semicolonPos + 1);
+            dotPositions[i] = Aggregator.dotPos(tempWords[i]);
+            long lastWordPos = cursor + (nameLen - 1) / Long.BYTES * Long.BYTES;
+            lastNameWords[i] = Aggregator.maskWord(
+                    UNSAFE.getLong(lastWordPos), Aggregator.semicolonMatchBits(UNSAFE.getLong(lastWordPos)));
+            if (nameLen <= 2 * Long.BYTES) {
+                nameWords0[i] = nameLen <= Long.BYTES ? lastNameWords[i] : UNSAFE.getLong(cursor);
+                nameWords1[i] = nameLen <= Long.BYTES ? 0 : lastNameWords[i];
+            } else {
+                nameWords0[i] = UNSAFE.getLong(cursor);
+                nameWords1[i] = UNSAFE.getLong(cursor + Long.BYTES);
+            }
+            hashes[i] = Aggregator.hash(nameWords0[i]);
+            blog4Accs[i] = new Blog4.StatsAcc(0, Blog4.ChunkProcessor.hash(0, nameWords[i]),
+                    cursor, nameLen, lastNameWords[i]);
+            table.ensureAcc(hashes[i], cursor, nameLen, nameWords0[i], nameWords1[i], lastNameWords[i]);
+            cursor += nameLen + (dotPositions[i] >> 3) + 3;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        table.free();
+        UNSAFE.freeMemory(inputBase);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public long semicolonMatchBits() {
+        long result = 0;
+        for (long word : nameWords) {
+            result ^= Aggregator.semicolonMatchBits(word);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public long maskWord() {
+        long result = 0;
+        for (int i = 0; i < LINE_COUNT; i++) {
+            result ^= Aggregator.maskWord(nameWords[i], matchBits[i]);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public int dotPos() {
+        int result = 0;
+        for (long word : tempWords) {
+            result += Aggregator.dotPos(word);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public int parseTemperature() {
+        int result = 0;
+        for (int i = 0; i < LINE_COUNT; i++) {
+            result += Aggregator.parseTemperature(tempWords[i], dotPositions[i]);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public int parseTemperatureOG() {
+        int result = 0;
+        for (int i = 0; i < LINE_COUNT; i++) {
+            result += Blog4.ChunkProcessor.parseTemperatureOG(tempWords[i], dotPositions[i]);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public long hashFirstWord() {
+        long result = 0;
+        for (long word : nameWords0) {
+            result ^= Aggregator.hash(word);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public long hashAllWords() {
+        long result = 0;
+        for (int i = 0; i < LINE_COUNT; i++) {
+            result ^= Aggregator.hashName(Aggregator.HashStrategy.ALL_WORDS, nameStarts[i], nameLens[i],
+                    nameWords0[i], nameWords1[i], lastNameWords[i]);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public long hashWyhash() {
+        long result = 0;
+        for (int i = 0; i < LINE_COUNT; i++) {
+            result ^= Aggregator.hashName(Aggregator.HashStrategy.WYHASH, nameStarts[i], nameLens[i],
+                    nameWords0[i], nameWords1[i], lastNameWords[i]);
+        }
+        return result;
+    }
+
+    // Blog4 hashes all the name words, here just the first one to compare with hashFirstWord
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public long hashBlog4() {
+        long result = 0;
+        for (long word : nameWords0) {
+            result ^= Blog4.ChunkProcessor.hash(0, word);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public int nameEqualsBlog4() {
+        int result = 0;
+        for (int i = 0; i < LINE_COUNT; i++) {
+            if (blog4Accs[i].nameEquals(0, nameStarts[i], nameLens[i], lastNameWords[i])) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    // Fast path in Blog6, finds short names by comparing the first two words
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public long findAcc2() {
+        long result = 0;
+        for (int i = 0; i < LINE_COUNT; i++) {
+            result ^= table.findAcc2(hashes[i], nameWords0[i], nameWords1[i]);
+        }
+        return result;
+    }
+
+    // Slow path in Blog6, probes the table and compares the full name
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public long ensureAcc() {
+        long result = 0;
+        for (int i = 0; i < LINE_COUNT; i++) {
+            result ^= table.ensureAcc(hashes[i], nameStarts[i], nameLens[i],
+                    nameWords0[i], nameWords1[i], lastNameWords[i]);
+        }
+        return result;
+    }
+}
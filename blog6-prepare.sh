@@ -1,9 +1,113 @@
 #!/bin/bash
+# Builds the Blog6 native image out/Blog6_image, optionally with profile-guided
+# optimization, and compares it with JVM mode:
+#
+#     ./blog6-prepare.sh [--pgo] [--no-compare]
+#
+# --pgo builds an instrumented image first and runs it on a generated dataset
+# (PGO_ROWS rows, 10,000,000 by default). The final image is optimized with the
+# profile it writes. PGO needs Oracle GraalVM; with GraalVM Community Edition the
+# instrumented build fails and the script builds without a profile.
+#
+# The comparison runs both modes on a small input, where startup dominates, and on
+# the PGO dataset, RUNS times each (5 by default), and prints the median wall-clock
+# times. The faster mode on the small input goes to out/Blog6_mode, which blog6.sh
+# follows.
+#
+# GraalVM is looked up in GRAALVM_HOME, then JAVA_HOME, then sdkman's 21.0.2-graal.
+# MARCH (default native) is passed to -march; use a named level like x86-64-v3 for
+# a binary that runs on other machines. The exact options and the GraalVM version
+# of the build are written to out/Blog6_image.build-info.
 
-source "$HOME/.sdkman/bin/sdkman-init.sh"
-sdk use java 21.0.2-graal 1>&2
+PGO=0
+COMPARE=1
+for arg in "$@"; do
+    case "$arg" in
+        --pgo) PGO=1 ;;
+        --no-compare) COMPARE=0 ;;
+        *) echo "Unknown option $arg" 1>&2; exit 1 ;;
+    esac
+done
 
-if [ ! -f out/Blog6_image ]; then
-    NATIVE_IMAGE_OPTS="--gc=epsilon -O3 -H:+UnlockExperimentalVMOptions -H:-GenLoopSafepoints -march=native --enable-preview -H:InlineAllBonus=10 -H:-ParseRuntimeOptions --initialize-at-build-time=Blog6"
-    native-image $NATIVE_IMAGE_OPTS -cp out -o out/Blog6_image Blog6
+if [ -z "$GRAALVM_HOME" ]; then
+    if [ -n "$JAVA_HOME" ] && [ -x "$JAVA_HOME/bin/native-image" ]; then
+        GRAALVM_HOME="$JAVA_HOME"
+    elif [ -x "$HOME/.sdkman/candidates/java/21.0.2-graal/bin/native-image" ]; then
+        GRAALVM_HOME="$HOME/.sdkman/candidates/java/21.0.2-graal"
+    else
+        echo "GraalVM not found, set GRAALVM_HOME" 1>&2
+        exit 1
+    fi
 fi
+NATIVE_IMAGE="$GRAALVM_HOME/bin/native-image"
+JAVA="$GRAALVM_HOME/bin/java"
+MARCH="${MARCH:-native}"
+PGO_ROWS="${PGO_ROWS:-10000000}"
+RUNS="${RUNS:-5}"
+
+NATIVE_IMAGE_OPTS="--gc=epsilon -O3 -H:+UnlockExperimentalVMOptions -H:-GenLoopSafepoints -march=$MARCH --enable-preview -H:InlineAllBonus=10 -H:-ParseRuntimeOptions --initialize-at-build-time=Blog6"
+# Keep in sync with blog6.sh, so JVM mode runs the way it was timed here
+JVM_OPTS="--enable-preview --add-modules jdk.incubator.vector --enable-native-access=ALL-UNNAMED"
+
+rm -rf out/classes
+mkdir -p out/classes out/pgo || exit 1
+# The image is built without jdk.incubator.vector, so Aggregator never loads
+# VectorChunkProcessor there and uses SWAR
+"$GRAALVM_HOME/bin/javac" --enable-preview --release 21 --add-modules jdk.incubator.vector -d out/classes \
+    $(ls src/*.java | grep -v SimplifyData) || exit 1
+
+if [ ! -f out/pgo/measurements.txt ] || [ "$(cat out/pgo/rows 2>/dev/null)" != "$PGO_ROWS" ]; then
+    "$JAVA" --enable-preview -cp out/classes CreateMeasurements --rows "$PGO_ROWS" --out out/pgo/measurements.txt || exit 1
+    echo "$PGO_ROWS" > out/pgo/rows
+fi
+
+PGO_OPTS=""
+if [ "$PGO" = 1 ]; then
+    rm -f out/pgo/default.iprof
+    if "$NATIVE_IMAGE" $NATIVE_IMAGE_OPTS --pgo-instrument -cp out/classes -o out/pgo/Blog6_instrumented Blog6; then
+        # In process, so the profile is written by the process that did the work
+        (cd out/pgo && LAUNCHER_MODE=inline ./Blog6_instrumented measurements.txt > /dev/null) || exit 1
+        PGO_OPTS="--pgo=out/pgo/default.iprof"
+    else
+        echo "This GraalVM can't build instrumented images, building without PGO" 1>&2
+    fi
+fi
+
+rm -f out/Blog6_image
+"$NATIVE_IMAGE" $NATIVE_IMAGE_OPTS $PGO_OPTS -cp out/classes -o out/Blog6_image Blog6 || exit 1
+{
+    "$JAVA" -version 2>&1
+    echo "native-image $NATIVE_IMAGE_OPTS $PGO_OPTS"
+    [ -n "$PGO_OPTS" ] && echo "profiled on $PGO_ROWS rows"
+} > out/Blog6_image.build-info
+
+if [ "$COMPARE" = 0 ]; then
+    exit 0
+fi
+
+head -n 1000 out/pgo/measurements.txt > out/pgo/small.txt
+
+# Prints the median wall-clock time in ms of RUNS runs of the command
+median_ms() {
+    local times=()
+    for ((run = 0; run < RUNS; run++)); do
+        local start=$(date +%s%N)
+        "$@" > /dev/null 2>&1 || return 1
+        times+=($((($(date +%s%N) - start) / 1000000)))
+    done
+    printf '%s\n' "${times[@]}" | sort -n | sed -n "$(((RUNS + 1) / 2))p"
+}
+
+NATIVE_SMALL=$(median_ms out/Blog6_image out/pgo/small.txt) || exit 1
+JVM_SMALL=$(median_ms "$JAVA" $JVM_OPTS -cp out/classes Blog6 out/pgo/small.txt) || exit 1
+NATIVE_LARGE=$(median_ms out/Blog6_image out/pgo/measurements.txt) || exit 1
+JVM_LARGE=$(median_ms "$JAVA" $JVM_OPTS -cp out/classes Blog6 out/pgo/measurements.txt) || exit 1
+
+printf '%-8s %12s %16s\n' mode "1000 rows" "$PGO_ROWS rows"
+printf '%-8s %9d ms %13d ms\n' native "$NATIVE_SMALL" "$NATIVE_LARGE" jvm "$JVM_SMALL" "$JVM_LARGE"
+if [ "$NATIVE_SMALL" -le "$JVM_SMALL" ]; then
+    echo native > out/Blog6_mode
+else
+    echo jvm > out/Blog6_mode
+fi
+echo "Using $(cat out/Blog6_mode) mode for short jobs, see out/Blog6_mode"
@@ -1,10 +1,17 @@
 #!/bin/bash
 
-if [ -f out/Blog6_image ]; then
+# out/Blog6_mode is written by blog6-prepare.sh, which picks the faster mode
+if [ -f out/Blog6_image ] && [ "$(cat out/Blog6_mode 2>/dev/null)" != "jvm" ]; then
     echo "Using native image 'out/Blog6_image'" 1>&2
-    out/Blog6_image
+    out/Blog6_image "$@"
 else
-    JAVA_OPTS="--enable-preview"
-    echo "Native image not found, using JVM mode." 1>&2
-    java $JAVA_OPTS -cp src Blog6
+    # The same options blog6-prepare.sh timed JVM mode with
+    JVM_OPTS="--enable-preview --add-modules jdk.incubator.vector --enable-native-access=ALL-UNNAMED"
+    if [ ! -f out/classes/Blog6.class ]; then
+        mkdir -p out/classes || exit 1
+        javac --enable-preview --release 21 --add-modules jdk.incubator.vector -d out/classes \
+            $(ls src/*.java | grep -v SimplifyData) || exit 1
+    fi
+    echo "Using JVM mode." 1>&2
+    java $JVM_OPTS -cp out/classes Blog6 "$@"
 fi
@@ -0,0 +1,29 @@
+#!/bin/bash
+# Builds and runs the JMH benchmarks in bench/. All arguments go to JMH, e.g.
+#
+#     ./jmh.sh SwarBenchmark -p nameLengths=10k
+#
+# Needs JDK 21+ on the PATH. The JMH jars are fetched into the local Maven
+# repository on first use. The end-to-end benchmarks generate their input files
+# in out/jmh-data and reuse them on later runs.
+
+JMH_VERSION=1.37
+M2_REPO="$HOME/.m2/repository"
+JMH_CORE="$M2_REPO/org/openjdk/jmh/jmh-core/$JMH_VERSION/jmh-core-$JMH_VERSION.jar"
+JMH_ANNPROCESS="$M2_REPO/org/openjdk/jmh/jmh-generator-annprocess/$JMH_VERSION/jmh-generator-annprocess-$JMH_VERSION.jar"
+JOPT_SIMPLE="$M2_REPO/net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar"
+COMMONS_MATH="$M2_REPO/org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar"
+
+if [ ! -f "$JMH_CORE" ] || [ ! -f "$JMH_ANNPROCESS" ]; then
+    mvn -q dependency:get -Dartifact=org.openjdk.jmh:jmh-core:$JMH_VERSION 1>&2 || exit 1
+    mvn -q dependency:get -Dartifact=org.openjdk.jmh:jmh-generator-annprocess:$JMH_VERSION 1>&2 || exit 1
+fi
+JMH_CP="$JMH_CORE:$JOPT_SIMPLE:$COMMONS_MATH"
+
+rm -rf out/jmh
+mkdir -p out/jmh out/jmh-data
+javac --enable-preview --release 21 --add-modules jdk.incubator.vector -cp "$JMH_CP" -processorpath "$JMH_ANNPROCESS:$JMH_CP" -d out/jmh \
+    $(ls src/*.java | grep -v SimplifyData) bench/*.java || exit 1
+
+cd out/jmh-data
+java --enable-preview -cp "../jmh:$JMH_CP" org.openjdk.jmh.Main "$@"
@@ -0,0 +1,1324 @@
+import sun.misc.Unsafe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+// The Blog6 engine, packaged for use as a library:
+//
+//     TreeMap<String, StationStats> results = new Aggregator()
+//             .threadCount(8)
+//             .aggregate(Path.of("measurements.txt"));
+//
+// With percentiles(true) it also counts the temperatures of each station in
+// off-heap histograms, in the same pass, so StationStats.percentile() is exact.
+// That costs about 8 KB per station and thread. Snapshots don't keep histograms.
+//
+// Unless chunkSize() is set, the chunk size is tuned to the input size, the thread
+// count and how much of the input is in the page cache, see tuneChunkSize().
+//
+// With numa(true) each NUMA node's workers are pinned to the node's CPUs and start
+// on their own region of the input, see aggregateOnNodes().
+//
+// With madvise(true) mapped inputs get the kernel hints for sequential reading, and
+// the calling thread prefaults the chunks just ahead of the workers.
+//
+// With directIo(true) files are read into off-heap buffers with many reads in flight
+// instead of being mapped, bypassing the page cache where the filesystem allows, see
+// DirectReadQueue. That's for files that aren't cached: mapped, their pages are read
+// one fault at a time.
+//
+// aggregateColumnar() reads a file converted to ColumnarFile's format, without
+// parsing any text.
+//
+// aggregateCompressed() reads gzip and LZ4 files. BGZF files and LZ4 files with
+// independent blocks, the lz4 tool's default, are decompressed in parallel by the
+// workers. Other gzip files are inflated on the calling thread while the workers
+// parse, so they go at the speed of one core's inflate. Given several files, it
+// shares one pool of workers between all of them that can be processed in parallel.
+//
+// engine(Engine.VECTOR) scans with the Vector API instead of SWAR, see
+// VectorChunkProcessor. It needs --add-modules jdk.incubator.vector and 256-bit
+// vectors, and falls back to SWAR without them.
+//
+// Every input line must have the form "<name>;<temperature>\n", where the temperature
+// lies in -99.9..99.9 and has exactly one fractional digit.
+public class Aggregator {
+    public static final int DEFAULT_CHUNK_SIZE = 2 * 1024 * 1024;
+    // The chunks shrink to this size at the end of the input
+    static final int MIN_CHUNK_SIZE = 64 * 1024;
+
+    public enum Engine { SWAR, VECTOR }
+
+    // FIRST_WORD is the fastest, but all names with the same first 8 bytes get the
+    // same hash. ALL_WORDS and WYHASH hash the whole name, see hashName().
+    public enum HashStrategy { FIRST_WORD, ALL_WORDS, WYHASH }
+
+    // BGZF is gzip in independent blocks, see CompressedBlockQueue
+    public enum Compression { NONE, GZIP, BGZF, ZSTD, LZ4 }
+
+    // The hot loop never reads more than this many bytes past the end of the line
+    // it's parsing. The last few lines of the input are copied to a buffer padded
+    // with this many bytes, so we never read past the end of the input segment.
+    static final int TAIL_PADDING = 64;
+
+    static final Unsafe UNSAFE = unsafe();
+
+    private static Unsafe unsafe() {
+        try {
+            Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return (Unsafe) theUnsafe.get(Unsafe.class);
+        }
+        catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static long getLong(long address) {
+        return UNSAFE.getLong(address);
+    }
+
+    static byte getByte(long address) {
+        return UNSAFE.getByte(address);
+    }
+
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    // 0 means tuned to the input
+    private int chunkSize = 0;
+    private boolean percentiles = false;
+    private Engine engine = Engine.SWAR;
+    private int lineOrder = ChunkProcessor.SEQUENTIAL;
+    private HashStrategy hashStrategy = HashStrategy.FIRST_WORD;
+    private HashStats hashStats;
+    private List<WorkerStats> workerStats = List.of();
+    private String chunking = "";
+    private boolean numa = false;
+    private boolean madvise = false;
+    private boolean collectPageFaults = false;
+    private boolean directIo = false;
+    private String memory = "";
+
+    public Aggregator threadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be positive, got " + threadCount);
+        }
+        this.threadCount = threadCount;
+        return this;
+    }
+
+    public Aggregator chunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive, got " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public Aggregator percentiles(boolean percentiles) {
+        this.percentiles = percentiles;
+        return this;
+    }
+
+    public Aggregator engine(Engine engine) {
+        this.engine = engine == Engine.VECTOR && !vectorEngineSupported() ? Engine.SWAR : engine;
+        return this;
+    }
+
+    // Parses three lines of each chunk in lockstep, see ChunkProcessor.processInterleaved().
+    // Only for the SWAR engine.
+    public Aggregator interleaved(boolean interleaved) {
+        if (interleaved) {
+            this.lineOrder = ChunkProcessor.INTERLEAVED;
+        } else if (lineOrder == ChunkProcessor.INTERLEAVED) {
+            this.lineOrder = ChunkProcessor.SEQUENTIAL;
+        }
+        return this;
+    }
+
+    // Touches the table slot of each line a few lines before updating it, see
+    // ChunkProcessor.processPrefetching(). Helps when the table doesn't fit into the
+    // cache. Only for the SWAR engine, and replaces interleaved(true). prefetch(false)
+    // leaves interleaved(true) in place.
+    public Aggregator prefetch(boolean prefetch) {
+        if (prefetch) {
+            this.lineOrder = ChunkProcessor.PREFETCHING;
+        } else if (lineOrder == ChunkProcessor.PREFETCHING) {
+            this.lineOrder = ChunkProcessor.SEQUENTIAL;
+        }
+        return this;
+    }
+
+    public Aggregator hashStrategy(HashStrategy hashStrategy) {
+        this.hashStrategy = hashStrategy;
+        return this;
+    }
+
+    // Makes hashStats() return the table statistics of the next run
+    public Aggregator collectHashStats(boolean collectHashStats) {
+        this.hashStats = collectHashStats ? new HashStats() : null;
+        return this;
+    }
+
+    // Returns the probe lengths and collisions of all the threads' tables in the last
+    // run, or null if they weren't collected
+    public HashStats hashStats() {
+        return hashStats;
+    }
+
+    public Aggregator numa(boolean numa) {
+        this.numa = numa;
+        return this;
+    }
+
+    public Aggregator madvise(boolean madvise) {
+        this.madvise = madvise;
+        return this;
+    }
+
+    // Makes schedulingReport() include the page faults of the next run, which they
+    // always do with madvise(true)
+    public Aggregator collectPageFaults(boolean collectPageFaults) {
+        this.collectPageFaults = collectPageFaults;
+        return this;
+    }
+
+    public Aggregator directIo(boolean directIo) {
+        this.directIo = directIo;
+        return this;
+    }
+
+    public boolean directIo() {
+        return directIo;
+    }
+
+    // Returns the timing of each worker thread in the last run
+    public List<WorkerStats> workerStats() {
+        return workerStats;
+    }
+
+    // Describes the chunk sizes and the worker timing of the last run
+    public String schedulingReport() {
+        var report = new StringBuilder(chunking).append('\n');
+        if (!memory.isEmpty()) {
+            report.append(memory).append('\n');
+        }
+        int nodeCount = 0;
+        for (int i = 0; i < workerStats.size(); i++) {
+            report.append(String.format("worker %d: %s%n", i, workerStats.get(i)));
+            nodeCount = Math.max(nodeCount, workerStats.get(i).node + 1);
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            long bytes = 0;
+            long stolenBytes = 0;
+            long busyNanos = 0;
+            for (var worker : workerStats) {
+                if (worker.node == node) {
+                    bytes += worker.bytes;
+                    stolenBytes += worker.stolenBytes;
+                    busyNanos += worker.busyNanos;
+                }
+            }
+            report.append(String.format("node %d: %,d MB, %,.0f MB/s per busy thread, %.1f%% stolen from other nodes%n",
+                    node, bytes >> 20, busyNanos == 0 ? 0 : (bytes / 1e6) / (busyNanos / 1e9),
+                    bytes == 0 ? 0 : 100.0 * stolenBytes / bytes));
+        }
+        long rows = 0;
+        long fastPathRows = 0;
+        long longNameRows = 0;
+        for (var worker : workerStats) {
+            rows += worker.rows;
+            fastPathRows += worker.fastPathRows();
+            longNameRows += worker.longNameRows;
+        }
+        report.append(String.format("rows: %,d, %.1f%% on the fast path, %.1f%% with long names%n",
+                rows, rows == 0 ? 0 : 100.0 * fastPathRows / rows, rows == 0 ? 0 : 100.0 * longNameRows / rows));
+        report.append(String.format("tail: %,.1f ms between the first and the last worker finishing%n",
+                WorkerStats.tailMillis(workerStats)));
+        return report.toString();
+    }
+
+    // The worker timing and row counts of the last run as JSON, for collecting them
+    // from production runs
+    public String workerStatsJson() {
+        var json = new StringBuilder("{\"chunking\": \"").append(chunking).append("\", \"memory\": \"")
+                .append(memory).append("\", ")
+                .append(String.format(Locale.ROOT, "\"tailMillis\": %.3f, \"workers\": [",
+                        WorkerStats.tailMillis(workerStats)));
+        for (int i = 0; i < workerStats.size(); i++) {
+            json.append(i == 0 ? "\n  " : ",\n  ").append(workerStats.get(i).toJson());
+        }
+        return json.append("\n]}\n").toString();
+    }
+
+    // Returns the engine actually used, after the fallback from VECTOR to SWAR
+    public Engine engine() {
+        return engine;
+    }
+
+    // Checks for the module first, so VectorChunkProcessor is never loaded without it
+    public static boolean vectorEngineSupported() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() && VectorChunkProcessor.supported();
+    }
+
+    public TreeMap<String, StationStats> aggregate(Path file) throws IOException {
+        return aggregateFiles(List.of(file));
+    }
+
+    public TreeMap<String, StationStats> aggregateFiles(List<Path> files) throws IOException {
+        if (directIo) {
+            return aggregateDirect(files);
+        }
+        try (var arena = Arena.ofShared()) {
+            var segments = new ArrayList<MemorySegment>();
+            for (var file : files) {
+                try (var channel = FileChannel.open(file, READ)) {
+                    segments.add(channel.map(MapMode.READ_ONLY, 0, channel.size(), arena));
+                }
+            }
+            return aggregateSegments(segments);
+        }
+    }
+
+    // The readers keep ioDepth reads in flight, so a device with deep queues stays busy
+    // while the workers parse the buffers already read
+    private TreeMap<String, StationStats> aggregateDirect(List<Path> files) throws IOException {
+        final int chunkSize = this.chunkSize != 0 ? this.chunkSize : DEFAULT_CHUNK_SIZE;
+        final int ioDepth = Math.max(8, 2 * threadCount);
+        try (var readQueue = new DirectReadQueue(files, chunkSize, ioDepth, threadCount)) {
+            chunking = String.format("chunk size %,d KB (%s reads, %d in flight)",
+                    chunkSize >> 10, readQueue.direct() ? "O_DIRECT" : "buffered", ioDepth);
+            memory = "";
+            readQueue.start();
+            final var readError = new IOException[1];
+            var results = runWorkers(readQueue::processAll, unused -> {
+                try {
+                    readQueue.awaitReaders();
+                }
+                catch (IOException e) {
+                    readError[0] = e;
+                }
+            });
+            if (readError[0] != null) {
+                throw readError[0];
+            }
+            return mergeResults(results);
+        }
+    }
+
+    public TreeMap<String, StationStats> aggregateColumnar(Path file) throws IOException {
+        return ColumnarFile.aggregate(file, threadCount);
+    }
+
+    public TreeMap<String, StationStats> aggregateCompressed(Path file) throws IOException {
+        return aggregateCompressed(List.of(file));
+    }
+
+    // Aggregates gzip and LZ4 files, and files that aren't compressed. The chunks of
+    // the uncompressed files and the blocks of the BGZF files and LZ4 frames with
+    // independent blocks all go to one pool of workers, which move on to the next
+    // file's work when they run out, so small files don't leave workers idle. Other
+    // gzip files and linked LZ4 blocks can only be decompressed in order, on the
+    // calling thread while the workers parse, which caps the throughput at what one
+    // core decompresses: a few hundred MB/s of output for gzip. Each of them gets a
+    // run of its own, before the pool's. zstd isn't supported. numa(), madvise() and
+    // directIo() don't apply here.
+    public TreeMap<String, StationStats> aggregateCompressed(List<Path> files) throws IOException {
+        final int chunkSize = this.chunkSize != 0 ? this.chunkSize : DEFAULT_CHUNK_SIZE;
+        try (var arena = Arena.ofShared()) {
+            var texts = new ArrayList<MemorySegment>();
+            var blockQueues = new ArrayList<CompressedBlockQueue>();
+            var gzipFiles = new ArrayList<Path>();
+            var linkedQueues = new ArrayList<CompressedBlockQueue>();
+            for (var file : files) {
+                MemorySegment input;
+                try (var channel = FileChannel.open(file, READ)) {
+                    input = channel.map(MapMode.READ_ONLY, 0, channel.size(), arena);
+                }
+                var compression = CompressedBlockQueue.detect(input);
+                switch (compression) {
+                    case NONE -> texts.add(input);
+                    case GZIP -> gzipFiles.add(file);
+                    case BGZF, LZ4 -> {
+                        var blockQueue = new CompressedBlockQueue(input, compression, chunkSize);
+                        (blockQueue.independent() ? blockQueues : linkedQueues).add(blockQueue);
+                    }
+                    case ZSTD -> throw new IOException(file + " is compressed with zstd, which isn't supported, "
+                            + "decompress it or recompress it with gzip, bgzip or lz4 first");
+                }
+            }
+            var totals = new TreeMap<String, StationStats>();
+            for (var file : gzipFiles) {
+                // A stream of gzip members has to be inflated from start to end
+                try (var channel = FileChannel.open(file, READ);
+                     var stream = new GZIPInputStream(Channels.newInputStream(channel), 64 * 1024)
+                ) {
+                    aggregate(stream).forEach((name, stats) -> totals.merge(name, stats, StationStats::merge));
+                }
+            }
+            for (var blockQueue : linkedQueues) {
+                try (var stream = blockQueue.sequentialStream()) {
+                    aggregate(stream).forEach((name, stats) -> totals.merge(name, stats, StationStats::merge));
+                }
+            }
+            if (!texts.isEmpty() || !blockQueues.isEmpty()) {
+                aggregateBlocks(blockQueues, texts, chunkSize)
+                        .forEach((name, stats) -> totals.merge(name, stats, StationStats::merge));
+            }
+            return totals;
+        }
+    }
+
+    // The text chunks come last, so the chunks shrinking at the end of the ChunkQueue
+    // even out the workers' finishing times
+    private TreeMap<String, StationStats> aggregateBlocks(
+            List<CompressedBlockQueue> blockQueues, List<MemorySegment> texts, int chunkSize) throws IOException {
+        var formats = new ArrayList<String>();
+        long compressedSize = 0;
+        for (var blockQueue : blockQueues) {
+            if (!formats.contains(blockQueue.format())) {
+                formats.add(blockQueue.format());
+            }
+            compressedSize += blockQueue.compressedSize();
+        }
+        if (!texts.isEmpty()) {
+            formats.add("uncompressed");
+        }
+        chunking = String.format("chunk size %,d KB (%s, %,d MB compressed)",
+                chunkSize >> 10, String.join(" and ", formats), compressedSize >> 20);
+        memory = "";
+        var chunkQueue = new ChunkQueue(texts, chunkSize, Math.min(MIN_CHUNK_SIZE, chunkSize), threadCount);
+        var results = new ArrayList<>(Arrays.asList(runWorkers((processor, stats) -> {
+            for (var blockQueue : blockQueues) {
+                blockQueue.processAll(processor, stats);
+            }
+            chunkQueue.processAll(processor, stats);
+        }, unused -> {})));
+        // The lines that cross task boundaries
+        try (var arena = Arena.ofConfined()) {
+            var processor = newChunkProcessor();
+            for (var blockQueue : blockQueues) {
+                var stitched = blockQueue.stitchedLines();
+                var lines = arena.allocate(Math.max(1, stitched.length));
+                MemorySegment.copy(stitched, 0, lines, ValueLayout.JAVA_BYTE, 0, stitched.length);
+                processor.processPadded(lines.address(), stitched.length);
+            }
+            results.add(finish(processor));
+        }
+        return mergeResults(results.toArray(StationStats[][]::new));
+    }
+
+    // Aggregates just the lines appended to the file since the last call with the same
+    // state file, and merges them into the totals saved there. An incomplete last line
+    // is left for the next call. Only for text files, and the state keeps no histograms,
+    // so percentiles are lost from the second call on.
+    public TreeMap<String, StationStats> aggregateAppended(Path file, Path stateFile) throws IOException {
+        var state = Snapshot.load(stateFile);
+        try (var channel = FileChannel.open(file, READ);
+             var arena = Arena.ofShared()
+        ) {
+            long fileSize = channel.size();
+            if (fileSize < state.offset) {
+                throw new IOException(String.format(
+                        "%s is shorter than the %,d bytes already aggregated", file, state.offset));
+            }
+            var appended = channel.map(MapMode.READ_ONLY, state.offset, fileSize - state.offset, arena);
+            long completeSize = appended.byteSize();
+            while (completeSize > 0 && getByte(appended.address() + completeSize - 1) != '\n') {
+                completeSize--;
+            }
+            var totals = aggregate(appended.asSlice(0, completeSize));
+            for (var stats : state.totals.values()) {
+                totals.merge(stats.name, stats, StationStats::merge);
+            }
+            state.offset += completeSize;
+            state.totals = totals;
+        }
+        state.save(stateFile);
+        return state.totals;
+    }
+
+    public TreeMap<String, StationStats> aggregate(MemorySegment input) {
+        return aggregateSegments(List.of(input));
+    }
+
+    // The chunks of all the inputs go into a single queue that all the workers take
+    // from, so they all stay busy until the end no matter how the input sizes vary.
+    public TreeMap<String, StationStats> aggregateSegments(List<MemorySegment> inputs) {
+        long totalSize = 0;
+        for (var input : inputs) {
+            totalSize += input.byteSize();
+        }
+        int maxChunkSize;
+        if (chunkSize != 0) {
+            maxChunkSize = chunkSize;
+            chunking = String.format("chunk size %,d KB (fixed)", maxChunkSize >> 10);
+        } else {
+            double resident = residentFraction(inputs);
+            maxChunkSize = tuneChunkSize(totalSize, threadCount, resident);
+            chunking = String.format("chunk size %,d KB (tuned for %,d MB, %d threads, %.0f%% cached)",
+                    maxChunkSize >> 10, totalSize >> 20, threadCount, 100 * resident);
+        }
+        var chunkQueue = new ChunkQueue(inputs, maxChunkSize, Math.min(MIN_CHUNK_SIZE, maxChunkSize), threadCount);
+        // /proc is only read when someone looks at the counts
+        boolean countFaults = madvise || collectPageFaults;
+        long[] faultsBefore = countFaults ? MemoryAdvice.pageFaults() : null;
+        var advice = madvise ? adviseSequential(inputs) : "";
+        TreeMap<String, StationStats> results;
+        if (numa) {
+            results = aggregateOnNodes(chunkQueue, NumaTopology.detect());
+        } else {
+            // Prefaulting from the calling thread would put uncached pages into its
+            // NUMA node's memory, so only without numa
+            results = mergeResults(runWorkers(chunkQueue::processAll,
+                    madvise ? unused -> chunkQueue.prefaultAhead(2 * threadCount) : unused -> {}));
+        }
+        if (countFaults) {
+            long[] faultsAfter = MemoryAdvice.pageFaults();
+            memory = String.format("%spage faults: %,d minor, %,d major",
+                    advice, faultsAfter[0] - faultsBefore[0], faultsAfter[1] - faultsBefore[1]);
+        } else {
+            memory = "";
+        }
+        return results;
+    }
+
+    // Returns which of the hints the kernel took, like "madvise SEQUENTIAL ok, ..."
+    private static String adviseSequential(List<MemorySegment> inputs) {
+        var report = new StringBuilder("madvise");
+        int[] advices = { MemoryAdvice.MADV_SEQUENTIAL, MemoryAdvice.MADV_WILLNEED, MemoryAdvice.MADV_HUGEPAGE };
+        String[] names = { "SEQUENTIAL", "WILLNEED", "HUGEPAGE" };
+        for (int i = 0; i < advices.length; i++) {
+            int error = 0;
+            for (var input : inputs) {
+                if (input.isMapped() && input.byteSize() > 0) {
+                    int result = MemoryAdvice.madvise(input.address(), input.byteSize(), advices[i]);
+                    error = error != 0 ? error : result;
+                }
+            }
+            report.append(i == 0 ? " " : ", ").append(names[i])
+                  .append(error == 0 ? " ok" : " failed (errno " + error + ")");
+        }
+        return report.append("; ").toString();
+    }
+
+    // Splits the workers into one group per NUMA node, in proportion to the node's
+    // CPUs, and pins each group to its node. The chunks are split into consecutive
+    // regions, one per node, in proportion to the node's workers. Pages of a file
+    // that isn't cached yet are read into the memory of the node that touches them
+    // first, so each node mostly reads its own memory. When a node's region is done,
+    // its workers steal chunks from the other nodes' regions.
+    private TreeMap<String, StationStats> aggregateOnNodes(ChunkQueue chunkQueue, NumaTopology topology) {
+        int nodeCount = topology.nodeCount();
+        int totalCpus = 0;
+        for (var cpus : topology.nodeCpus) {
+            totalCpus += cpus.length;
+        }
+        var workerNodes = new int[threadCount];
+        var nodeWorkers = new int[nodeCount];
+        int node = 0;
+        int cpusBefore = 0;
+        for (int i = 0; i < threadCount; i++) {
+            while ((long) i * totalCpus >= (long) (cpusBefore + topology.nodeCpus[node].length) * threadCount) {
+                cpusBefore += topology.nodeCpus[node].length;
+                node++;
+            }
+            workerNodes[i] = node;
+            nodeWorkers[node]++;
+        }
+        var regions = chunkQueue.split(nodeWorkers);
+        chunking += String.format(", %d NUMA nodes with %s workers", nodeCount, Arrays.toString(nodeWorkers));
+        return mergeResults(runWorkers((processor, stats) -> {
+            int myNode = workerNodes[stats.index];
+            stats.node = myNode;
+            stats.pinned = topology.pinCurrentThread(myNode);
+            regions[myNode].processAll(processor, stats);
+            long ownBytes = stats.bytes;
+            for (int i = 1; i < nodeCount; i++) {
+                regions[(myNode + i) % nodeCount].processAll(processor, stats);
+            }
+            stats.stolenBytes = stats.bytes - ownBytes;
+        }, unused -> {}));
+    }
+
+    // Aims for 16 chunks per thread, so the last chunks are a small part of each
+    // thread's work. Input that isn't in the page cache gets faulted in as the
+    // threads touch it, and larger chunks keep each thread's reads sequential.
+    static int tuneChunkSize(long totalSize, int threadCount, double residentFraction) {
+        long maxChunkSize = residentFraction > 0.9 ? 8 * 1024 * 1024 : 32 * 1024 * 1024;
+        long chunkSize = Long.highestOneBit(Math.max(1, totalSize / (16L * threadCount)));
+        return (int) Math.max(MIN_CHUNK_SIZE, Math.min(maxChunkSize, chunkSize));
+    }
+
+    // Samples which pages of the mapped inputs are in the page cache. Inputs that
+    // aren't mapped files are in memory already.
+    static double residentFraction(List<MemorySegment> inputs) {
+        final int samplesPerInput = 256;
+        final long pageSize = 4096;
+        int samples = 0;
+        int resident = 0;
+        for (var input : inputs) {
+            long size = input.byteSize();
+            if (size < pageSize) {
+                continue;
+            }
+            for (int i = 0; i < samplesPerInput; i++) {
+                long offset = (size - pageSize) / samplesPerInput * i;
+                samples++;
+                if (!input.isMapped() || input.asSlice(offset, pageSize).isLoaded()) {
+                    resident++;
+                }
+            }
+        }
+        return samples == 0 ? 1 : (double) resident / samples;
+    }
+
+    public TreeMap<String, StationStats> aggregate(InputStream input) throws IOException {
+        return aggregate(Channels.newChannel(input));
+    }
+
+    // Reads the input on the calling thread into a pool of off-heap buffers, which the
+    // workers process and hand back for reuse. A line cut off at the end of a buffer is
+    // copied to the start of the next one.
+    public TreeMap<String, StationStats> aggregate(ReadableByteChannel input) throws IOException {
+        final int chunkSize = this.chunkSize != 0 ? this.chunkSize : DEFAULT_CHUNK_SIZE;
+        chunking = String.format("chunk size %,d KB (streaming)", chunkSize >> 10);
+        final int bufferCount = 2 * threadCount + 2;
+        final var freeBuffers = new ArrayBlockingQueue<InputBuffer>(bufferCount);
+        final var filledBuffers = new ArrayBlockingQueue<InputBuffer>(bufferCount + threadCount);
+        try (var arena = Arena.ofShared()) {
+            for (int i = 0; i < bufferCount; i++) {
+                freeBuffers.add(new InputBuffer(arena.allocate(chunkSize + 1 + TAIL_PADDING, Long.BYTES), chunkSize));
+            }
+            final var readError = new IOException[1];
+            var results = runWorkers((processor, stats) -> {
+                while (true) {
+                    var buffer = takeUninterruptibly(filledBuffers);
+                    if (buffer == InputBuffer.END_OF_INPUT) {
+                        break;
+                    }
+                    long start = System.nanoTime();
+                    processor.processChunk(buffer.address, buffer.address + buffer.limit);
+                    stats.chunkDone(buffer.limit, start, System.nanoTime());
+                    freeBuffers.add(buffer);
+                }
+            }, unused -> {
+                try {
+                    readInput(input, freeBuffers, filledBuffers);
+                }
+                catch (IOException e) {
+                    readError[0] = e;
+                }
+                finally {
+                    for (int i = 0; i < threadCount; i++) {
+                        filledBuffers.add(InputBuffer.END_OF_INPUT);
+                    }
+                }
+            });
+            if (readError[0] != null) {
+                throw readError[0];
+            }
+            return mergeResults(results);
+        }
+    }
+
+    private static void readInput(
+            ReadableByteChannel input, BlockingQueue<InputBuffer> freeBuffers, BlockingQueue<InputBuffer> filledBuffers
+    ) throws IOException {
+        var buffer = takeUninterruptibly(freeBuffers);
+        int carryOver = 0;
+        while (true) {
+            var byteBuffer = buffer.byteBuffer.clear().position(carryOver);
+            boolean endOfInput = false;
+            while (byteBuffer.hasRemaining()) {
+                if (input.read(byteBuffer) < 0) {
+                    endOfInput = true;
+                    break;
+                }
+            }
+            int size = byteBuffer.position();
+            if (endOfInput) {
+                if (size > 0 && getByte(buffer.address + size - 1) != '\n') {
+                    UNSAFE.putByte(buffer.address + size, (byte) '\n');
+                    size++;
+                }
+                buffer.limit = size;
+                filledBuffers.add(buffer);
+                return;
+            }
+            int lineEnd = size;
+            while (lineEnd > 0 && getByte(buffer.address + lineEnd - 1) != '\n') {
+                lineEnd--;
+            }
+            if (lineEnd == 0) {
+                throw new IOException("Found a line longer than the chunk size " + size);
+            }
+            var nextBuffer = takeUninterruptibly(freeBuffers);
+            carryOver = size - lineEnd;
+            UNSAFE.copyMemory(buffer.address + lineEnd, nextBuffer.address, carryOver);
+            buffer.limit = lineEnd;
+            filledBuffers.add(buffer);
+            buffer = nextBuffer;
+        }
+    }
+
+    static <T> T takeUninterruptibly(BlockingQueue<T> queue) {
+        while (true) {
+            try {
+                return queue.take();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // A reusable off-heap buffer of the streaming input. It's TAIL_PADDING bytes longer
+    // than its capacity, so the hot loop can parse it in place.
+    private static class InputBuffer {
+        static final InputBuffer END_OF_INPUT = new InputBuffer(MemorySegment.NULL, 0);
+
+        final long address;
+        final ByteBuffer byteBuffer;
+        int limit;
+
+        InputBuffer(MemorySegment segment, int capacity) {
+            this.address = segment.address();
+            this.byteBuffer = capacity == 0 ? null : segment.asSlice(0, capacity).asByteBuffer();
+        }
+    }
+
+    // Runs workerLoop on each of the worker threads and mainThreadWork on the calling
+    // thread, each with its own ChunkProcessor, and returns the stats they collected.
+    // The workers' timing goes to workerStats.
+    private StationStats[][] runWorkers(
+            BiConsumer<ChunkProcessor, WorkerStats> workerLoop, Consumer<ChunkProcessor> mainThreadWork
+    ) {
+        final var results = new StationStats[threadCount + 1][];
+        if (hashStats != null) {
+            hashStats = new HashStats();
+        }
+        final long runStart = System.nanoTime();
+        var stats = new ArrayList<WorkerStats>();
+        var threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int myIndex = i;
+            final var myStats = new WorkerStats();
+            myStats.index = i;
+            stats.add(myStats);
+            threads[i] = new Thread(() -> {
+                var processor = newChunkProcessor();
+                workerLoop.accept(processor, myStats);
+                myStats.finishNanos = System.nanoTime() - runStart;
+                myStats.longNameRows = processor.longNameRows;
+                myStats.slowPathRows = processor.table.ensureAccCalls;
+                results[myIndex] = finish(processor);
+                for (var stationStats : results[myIndex]) {
+                    myStats.rows += stationStats.count;
+                }
+            });
+        }
+        for (var thread : threads) {
+            thread.start();
+        }
+        var mainThreadProcessor = newChunkProcessor();
+        mainThreadWork.accept(mainThreadProcessor);
+        results[threadCount] = finish(mainThreadProcessor);
+        try {
+            for (var thread : threads) {
+                thread.join();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        workerStats = List.copyOf(stats);
+        return results;
+    }
+
+    private ChunkProcessor newChunkProcessor() {
+        if (engine == Engine.VECTOR) {
+            return percentiles
+                    ? new VectorChunkProcessor.WithHistograms(hashStrategy)
+                    : new VectorChunkProcessor(new StationTable(), hashStrategy);
+        }
+        return percentiles
+                ? new HistogramChunkProcessor(lineOrder, hashStrategy)
+                : new ChunkProcessor(new StationTable(), lineOrder, hashStrategy);
+    }
+
+    private StationStats[] finish(ChunkProcessor processor) {
+        if (hashStats != null) {
+            processor.table.addHashStats(hashStats);
+        }
+        return processor.finish();
+    }
+
+    static TreeMap<String, StationStats> mergeResults(StationStats[][] results) {
+        var totalsMap = new TreeMap<String, StationStats>();
+        for (var statsArray : results) {
+            for (var stats : statsArray) {
+                totalsMap.merge(stats.name, stats, StationStats::merge);
+            }
+        }
+        return totalsMap;
+    }
+
+    // Returns the size of the input prefix that ends with a newline and is followed
+    // by at least TAIL_PADDING bytes. The hot loop can safely parse that prefix
+    // in place.
+    static long mainSize(long inputBase, long inputSize) {
+        long pos = inputSize - TAIL_PADDING - 1;
+        while (pos >= 0 && getByte(inputBase + pos) != '\n') {
+            pos--;
+        }
+        return Math.max(0, pos + 1);
+    }
+
+    // Given an address inside a line, returns the address of the next line. If the
+    // byte just before the address is a newline, returns the address itself.
+    static long nextLineStart(long address) {
+        address--;
+        while (getByte(address) != '\n') {
+            address++;
+        }
+        return address + 1;
+    }
+
+    // Hands out the chunks of one or more input segments. The part of each segment
+    // after the last chunk is a padded chunk: it's copied to a padded buffer before
+    // processing, so the hot loop doesn't read past the end of the segment.
+    //
+    // The chunks are at most maxChunkSize, but shrink towards the end of the input,
+    // down to minChunkSize. Each one is at most a 1/(4 * threadCount) share of the
+    // bytes left, so when the first thread runs out of chunks, the others only have
+    // small ones left to finish.
+    static class ChunkQueue {
+        private static final int AT_LINE_START = 0;
+        private static final int MID_LINE = 1;
+        private static final int PADDED = 2;
+
+        private static class Chunk {
+            final long base;
+            final long limit;
+            final int kind;
+
+            Chunk(long base, long limit, int kind) {
+                this.base = base;
+                this.limit = limit;
+                this.kind = kind;
+            }
+        }
+
+        private final Chunk[] chunks;
+        private final AtomicInteger chunkSelector = new AtomicInteger();
+
+        private ChunkQueue(Chunk[] chunks) {
+            this.chunks = chunks;
+        }
+
+        ChunkQueue(List<MemorySegment> inputs, int chunkSize) {
+            this(inputs, chunkSize, chunkSize, 1);
+        }
+
+        ChunkQueue(List<MemorySegment> inputs, int maxChunkSize, int minChunkSize, int threadCount) {
+            long remaining = 0;
+            for (var input : inputs) {
+                if (!input.isNative()) {
+                    throw new IllegalArgumentException("Input must be a native memory segment");
+                }
+                remaining += input.byteSize();
+            }
+            var chunkList = new ArrayList<Chunk>();
+            for (var input : inputs) {
+                long inputBase = input.address();
+                long inputSize = input.byteSize();
+                long mainSize = mainSize(inputBase, inputSize);
+                long chunkSize;
+                for (long start = 0; start < mainSize; start += chunkSize) {
+                    chunkSize = Math.max(minChunkSize, Math.min(maxChunkSize, remaining / (4L * threadCount)));
+                    chunkList.add(new Chunk(inputBase + start, inputBase + Math.min(mainSize, start + chunkSize),
+                            start == 0 ? AT_LINE_START : MID_LINE));
+                    remaining -= chunkSize;
+                }
+                if (inputSize > mainSize) {
+                    chunkList.add(new Chunk(inputBase + mainSize, inputBase + inputSize, PADDED));
+                }
+            }
+            chunks = chunkList.toArray(Chunk[]::new);
+        }
+
+        // Splits the chunks into consecutive queues with about the given shares of the
+        // bytes. A share of 0 gets an empty queue.
+        ChunkQueue[] split(int[] shares) {
+            long totalBytes = 0;
+            for (var chunk : chunks) {
+                totalBytes += chunk.limit - chunk.base;
+            }
+            long totalShares = 0;
+            for (int share : shares) {
+                totalShares += share;
+            }
+            var queues = new ChunkQueue[shares.length];
+            int start = 0;
+            long bytesSoFar = 0;
+            long sharesSoFar = 0;
+            for (int i = 0; i < shares.length; i++) {
+                sharesSoFar += shares[i];
+                int end = start;
+                while (end < chunks.length && (i == shares.length - 1
+                        || (bytesSoFar + (chunks[end].limit - chunks[end].base) / 2) * totalShares
+                                < totalBytes * sharesSoFar)) {
+                    bytesSoFar += chunks[end].limit - chunks[end].base;
+                    end++;
+                }
+                queues[i] = new ChunkQueue(Arrays.copyOfRange(chunks, start, end));
+                start = end;
+            }
+            return queues;
+        }
+
+        // Prefaults the chunks the workers will take next, staying at most lookahead
+        // chunks ahead of them. Returns when the workers have taken all the chunks.
+        void prefaultAhead(int lookahead) {
+            int next = 0;
+            while (next < chunks.length) {
+                int taken = chunkSelector.get();
+                if (taken >= chunks.length) {
+                    return;
+                }
+                if (next >= taken + lookahead) {
+                    LockSupport.parkNanos(50_000);
+                    continue;
+                }
+                // Chunks the workers took in the meantime aren't worth prefaulting
+                next = Math.max(next, taken);
+                var chunk = chunks[next];
+                MemoryAdvice.prefault(chunk.base, chunk.limit - chunk.base);
+                next++;
+            }
+        }
+
+        void processAll(ChunkHandler processor) {
+            processAll(processor, new WorkerStats());
+        }
+
+        void processAll(ChunkHandler processor, WorkerStats stats) {
+            while (true) {
+                var selectedChunk = chunkSelector.getAndIncrement();
+                if (selectedChunk >= chunks.length) {
+                    break;
+                }
+                var chunk = chunks[selectedChunk];
+                long start = System.nanoTime();
+                switch (chunk.kind) {
+                    case AT_LINE_START -> processor.processChunk(chunk.base, chunk.limit);
+                    case MID_LINE -> processor.processChunk(nextLineStart(chunk.base), chunk.limit);
+                    case PADDED -> processor.processPadded(chunk.base, chunk.limit - chunk.base);
+                    default -> throw new AssertionError(chunk.kind);
+                }
+                stats.chunkDone(chunk.limit - chunk.base, start, System.nanoTime());
+            }
+        }
+    }
+
+    // A per-thread parser of whole lines, taking its input from a ChunkQueue
+    interface ChunkHandler {
+        // Processes all the lines that start within [chunkBase, chunkLimit). chunkBase
+        // must be at the start of a line, and the input must stay readable for at
+        // least TAIL_PADDING bytes after the end of the last line.
+        void processChunk(long chunkBase, long chunkLimit);
+
+        // Copies the input to a zero-padded buffer, appending the final newline if it's
+        // missing, and processes it there.
+        default void processPadded(long address, long size) {
+            if (size == 0) {
+                return;
+            }
+            long bufSize = size + 1 + TAIL_PADDING;
+            long buf = UNSAFE.allocateMemory(bufSize);
+            try {
+                UNSAFE.setMemory(buf, bufSize, (byte) 0);
+                UNSAFE.copyMemory(address, buf, size);
+                if (getByte(buf + size - 1) != '\n') {
+                    UNSAFE.putByte(buf + size, (byte) '\n');
+                }
+                processChunk(buf, buf + size);
+            }
+            finally {
+                UNSAFE.freeMemory(buf);
+            }
+        }
+    }
+
+    static class ChunkProcessor implements ChunkHandler {
+        // The order in which processChunk() parses the lines and updates the table
+        static final int SEQUENTIAL = 0;
+        static final int INTERLEAVED = 1;
+        static final int PREFETCHING = 2;
+
+        // Below this size, a chunk isn't worth splitting for interleaved parsing
+        private static final int MIN_INTERLEAVED_CHUNK = 4096;
+        // How many lines ahead processPrefetching() touches the table, a power of two
+        private static final int PREFETCH_DISTANCE = 8;
+
+        final StationTable table;
+        private final int lineOrder;
+        final HashStrategy hashStrategy;
+
+        // The lines parsed but not yet added to the table by processPrefetching(),
+        // indexed by line number modulo PREFETCH_DISTANCE
+        private final long[] pendingHashes = new long[PREFETCH_DISTANCE];
+        private final long[] pendingNameStarts = new long[PREFETCH_DISTANCE];
+        private final long[] pendingNameWords0 = new long[PREFETCH_DISTANCE];
+        private final long[] pendingNameWords1 = new long[PREFETCH_DISTANCE];
+        private final long[] pendingLastNameWords = new long[PREFETCH_DISTANCE];
+        private final int[] pendingNameLens = new int[PREFETCH_DISTANCE];
+        private final int[] pendingTemperatures = new int[PREFETCH_DISTANCE];
+        // Keeps the JIT from eliminating the loads that touch the table
+        long prefetchSink;
+        // Rows with names longer than two words, which never take the findAcc2() fast
+        // path. Counted in their branch only, so the fast path doesn't pay for it.
+        long longNameRows;
+
+        ChunkProcessor(StationTable table, int lineOrder, HashStrategy hashStrategy) {
+            this.table = table;
+            this.lineOrder = lineOrder;
+            this.hashStrategy = hashStrategy;
+        }
+
+        long hash(long nameStartOffset, int nameLen, long nameWord0, long nameWord1, long lastNameWord) {
+            return hashStrategy == HashStrategy.FIRST_WORD
+                    ? Aggregator.hash(nameWord0)
+                    : hashName(hashStrategy, nameStartOffset, nameLen, nameWord0, nameWord1, lastNameWord);
+        }
+
+        void observe(long acc, int temperature) {
+            StationTable.observe(acc, temperature);
+        }
+
+        @Override
+        public void processChunk(long chunkBase, long chunkLimit) {
+            if (lineOrder == INTERLEAVED && chunkLimit - chunkBase >= MIN_INTERLEAVED_CHUNK) {
+                processInterleaved(chunkBase, chunkLimit);
+                return;
+            }
+            if (lineOrder == PREFETCHING) {
+                processPrefetching(chunkBase, chunkLimit);
+                return;
+            }
+            long cursor = chunkBase;
+            while (cursor < chunkLimit) {
+                cursor = processLine(cursor);
+            }
+        }
+
+        // Splits the chunk into three parts at line starts and parses one line of each
+        // part per iteration. The three lines don't depend on each other, so the CPU
+        // can overlap their loads, hash lookups and branch mispredictions. When the
+        // shortest part is done, the rest of the other two are parsed one at a time.
+        private void processInterleaved(long chunkBase, long chunkLimit) {
+            long partSize = (chunkLimit - chunkBase) / 3;
+            long limit0 = Math.min(nextLineStart(chunkBase + partSize), chunkLimit);
+            long limit1 = Math.max(limit0, Math.min(nextLineStart(chunkBase + 2 * partSize), chunkLimit));
+            long cursor0 = chunkBase;
+            long cursor1 = limit0;
+            long cursor2 = limit1;
+            while (cursor0 < limit0 && cursor1 < limit1 && cursor2 < chunkLimit) {
+                cursor0 = processLine(cursor0);
+                cursor1 = processLine(cursor1);
+                cursor2 = processLine(cursor2);
+            }
+            while (cursor0 < limit0) {
+                cursor0 = processLine(cursor0);
+            }
+            while (cursor1 < limit1) {
+                cursor1 = processLine(cursor1);
+            }
+            while (cursor2 < chunkLimit) {
+                cursor2 = processLine(cursor2);
+            }
+        }
+
+        // A two-stage pipeline: each line is parsed and its table slot touched, but it's
+        // only added to the table PREFETCH_DISTANCE lines later. By then the slot is
+        // usually in the cache, so the CPU can keep parsing while the slots of several
+        // lines are being loaded from memory. The accumulators are inline in the slots,
+        // so there's no further pointer to chase.
+        private void processPrefetching(long chunkBase, long chunkLimit) {
+            long cursor = chunkBase;
+            long line = 0;
+            while (cursor < chunkLimit) {
+                int pending = (int) line & (PREFETCH_DISTANCE - 1);
+                if (line >= PREFETCH_DISTANCE) {
+                    addPending(pending);
+                }
+                cursor = parseLine(cursor, pending);
+                prefetchSink ^= table.touch(pendingHashes[pending]);
+                line++;
+            }
+            for (long i = Math.max(0, line - PREFETCH_DISTANCE); i < line; i++) {
+                addPending((int) i & (PREFETCH_DISTANCE - 1));
+            }
+        }
+
+        private void addPending(int pending) {
+            long hash = pendingHashes[pending];
+            long nameWord0 = pendingNameWords0[pending];
+            long nameWord1 = pendingNameWords1[pending];
+            int nameLen = pendingNameLens[pending];
+            long acc = 0;
+            if (nameLen <= 2 * Long.BYTES) {
+                acc = table.findAcc2(hash, nameWord0, nameWord1);
+            } else {
+                longNameRows++;
+            }
+            if (acc == 0) {
+                acc = table.ensureAcc(hash, pendingNameStarts[pending], nameLen, nameWord0, nameWord1,
+                        pendingLastNameWords[pending]);
+            }
+            observe(acc, pendingTemperatures[pending]);
+        }
+
+        // Parses the line at the cursor like processLine(), but only stores the result
+        // at the given index of the pending arrays. Returns the start of the next line.
+        private long parseLine(long cursor, int pending) {
+            long nameStartOffset = cursor;
+            long nameWord0 = getLong(nameStartOffset);
+            long nameWord1 = getLong(nameStartOffset + Long.BYTES);
+            long matchBits0 = semicolonMatchBits(nameWord0);
+            long matchBits1 = semicolonMatchBits(nameWord1);
+
+            long lastNameWord;
+            int nameLen;
+            if ((matchBits0 | matchBits1) != 0) {
+                int nameLen0 = nameLen(matchBits0);
+                int nameLen1 = nameLen(matchBits1);
+                nameWord0 = maskWord(nameWord0, matchBits0);
+                long nameWord1Mask = (long) nameLen0 << 60 >> 63;
+                nameWord1 = maskWord(nameWord1, matchBits1) & nameWord1Mask;
+                nameLen1 &= (int) (nameWord1Mask & 0b111);
+                nameLen = nameLen0 + nameLen1 + 1;
+                lastNameWord = (nameWord0 & ~nameWord1Mask) | nameWord1;
+            } else {
+                nameLen = 2 * Long.BYTES;
+                while (true) {
+                    lastNameWord = getLong(nameStartOffset + nameLen);
+                    long matchBits = semicolonMatchBits(lastNameWord);
+                    if (matchBits != 0) {
+                        nameLen += nameLen(matchBits) + 1;
+                        lastNameWord = maskWord(lastNameWord, matchBits);
+                        break;
+                    }
+                    nameLen += Long.BYTES;
+                }
+            }
+            cursor += nameLen;
+            long tempWord = getLong(cursor);
+            int dotPos = dotPos(tempWord);
+            pendingTemperatures[pending] = parseTemperature(tempWord, dotPos);
+            pendingHashes[pending] = hash(nameStartOffset, nameLen, nameWord0, nameWord1, lastNameWord);
+            pendingNameStarts[pending] = nameStartOffset;
+            pendingNameWords0[pending] = nameWord0;
+            pendingNameWords1[pending] = nameWord1;
+            pendingLastNameWords[pending] = lastNameWord;
+            pendingNameLens[pending] = nameLen;
+            return cursor + (dotPos >> 3) + 3;
+        }
+
+        // Parses the line at the cursor and returns the start of the next line
+        private long processLine(long cursor) {
+            long nameStartOffset = cursor;
+            long nameWord0 = getLong(nameStartOffset);
+            long nameWord1 = getLong(nameStartOffset + Long.BYTES);
+            long matchBits0 = semicolonMatchBits(nameWord0);
+            long matchBits1 = semicolonMatchBits(nameWord1);
+
+            long lastNameWord;
+            int temperature;
+            long acc;
+            long hash;
+            int nameLen;
+            if ((matchBits0 | matchBits1) != 0) {
+                int nameLen0 = nameLen(matchBits0);
+                int nameLen1 = nameLen(matchBits1);
+                nameWord0 = maskWord(nameWord0, matchBits0);
+                long nameWord1Mask = (long) nameLen0 << 60 >> 63;
+                nameWord1 = maskWord(nameWord1, matchBits1) & nameWord1Mask;
+                nameLen1 &= (int) (nameWord1Mask & 0b111);
+                nameLen = nameLen0 + nameLen1 + 1;
+                lastNameWord = (nameWord0 & ~nameWord1Mask) | nameWord1;
+
+                cursor += nameLen;
+                long tempWord = getLong(cursor);
+                int dotPos = dotPos(tempWord);
+                temperature = parseTemperature(tempWord, dotPos);
+
+                cursor += (dotPos >> 3) + 3;
+                hash = hash(nameStartOffset, nameLen, nameWord0, nameWord1, lastNameWord);
+                acc = table.findAcc2(hash, nameWord0, nameWord1);
+                if (acc != 0) {
+                    observe(acc, temperature);
+                    return cursor;
+                }
+            } else {
+                nameLen = 2 * Long.BYTES;
+                while (true) {
+                    lastNameWord = getLong(nameStartOffset + nameLen);
+                    long matchBits = semicolonMatchBits(lastNameWord);
+                    if (matchBits != 0) {
+                        nameLen += nameLen(matchBits) + 1;
+                        lastNameWord = maskWord(lastNameWord, matchBits);
+                        cursor += nameLen;
+                        long tempWord = getLong(cursor);
+                        int dotPos = dotPos(tempWord);
+                        temperature = parseTemperature(tempWord, dotPos);
+                        cursor += (dotPos >> 3) + 3;
+                        break;
+                    }
+                    nameLen += Long.BYTES;
+                }
+                hash = hash(nameStartOffset, nameLen, nameWord0, nameWord1, lastNameWord);
+                longNameRows++;
+            }
+            acc = table.ensureAcc(hash, nameStartOffset, nameLen, nameWord0, nameWord1, lastNameWord);
+            observe(acc, temperature);
+            return cursor;
+        }
+
+        // Exports the accumulated stats and releases the off-heap table.
+        StationStats[] finish() {
+            var stats = table.exportStats();
+            table.free();
+            return stats;
+        }
+    }
+
+    // Also fills the histograms. A subclass rather than a flag, so the plain
+    // ChunkProcessor's hot loop stays exactly as it was.
+    static class HistogramChunkProcessor extends ChunkProcessor {
+        HistogramChunkProcessor(int lineOrder, HashStrategy hashStrategy) {
+            super(new StationTable(true), lineOrder, hashStrategy);
+        }
+
+        @Override
+        void observe(long acc, int temperature) {
+            table.observeWithHistogram(acc, temperature);
+        }
+    }
+
+    private static final long BROADCAST_SEMICOLON = 0x3B3B3B3B3B3B3B3BL;
+    private static final long BROADCAST_0x01 = 0x0101010101010101L;
+    private static final long BROADCAST_0x80 = 0x8080808080808080L;
+
+    static long semicolonMatchBits(long word) {
+        long diff = word ^ BROADCAST_SEMICOLON;
+        return (diff - BROADCAST_0x01) & (~diff & BROADCAST_0x80);
+    }
+
+    // credit: artsiomkorzun
+    static long maskWord(long word, long matchBits) {
+        long mask = matchBits ^ (matchBits - 1);
+        return word & mask;
+    }
+
+    private static final long DOT_BITS = 0x10101000;
+    private static final long MAGIC_MULTIPLIER = (100 * 0x1000000 + 10 * 0x10000 + 1);
+
+    // credit: merykitty
+    // Bit 4 of the ascii of a digit is 1, while that of '.' is 0.
+    // This finds the decimal separator. The value can be 12, 20, 28.
+    static int dotPos(long word) {
+        return Long.numberOfTrailingZeros(~word & DOT_BITS);
+    }
+
+    // credit: merykitty and royvanrijn
+    static int parseTemperature(long numberBytes, int dotPos) {
+        // numberBytes contains the number: X.X, -X.X, XX.X or -XX.X
+        final long invNumberBytes = ~numberBytes;
+
+        // Calculates the sign
+        final long signed = (invNumberBytes << 59) >> 63;
+        final int _28MinusDotPos = (dotPos ^ 0b11100);
+        final long minusFilter = ~(signed & 0xFF);
+        // Use the pre-calculated decimal position to adjust the values
+        final long digits = ((numberBytes & minusFilter) << _28MinusDotPos) & 0x0F000F0F00L;
+
+        // Multiply by a magic (100 * 0x1000000 + 10 * 0x10000 + 1), to get the result
+        final long absValue = ((digits * MAGIC_MULTIPLIER) >>> 32) & 0x3FF;
+        // And apply sign
+        return (int) ((absValue + signed) ^ signed);
+    }
+
+    static int nameLen(long separator) {
+        return (Long.numberOfTrailingZeros(separator) >>> 3);
+    }
+
+    static long hash(long word) {
+        return Long.rotateLeft(word * 0x51_7c_c1_b7_27_22_0a_95L, 17);
+    }
+
+    private static final long WY_P0 = 0xa0761d6478bd642fL;
+    private static final long WY_P1 = 0xe7037ed1a0b428dbL;
+
+    // Hashes the whole name. The words are those of the hot loop: up to 16 bytes,
+    // nameWord0 and nameWord1 are masked after the semicolon. Longer names have
+    // unmasked first words, then the words from the input up to lastNameWord.
+    static long hashName(
+            HashStrategy strategy, long nameStartOffset, int nameLen, long nameWord0, long nameWord1, long lastNameWord
+    ) {
+        int lastWordPos = (nameLen - 1) & -Long.BYTES;
+        if (strategy == HashStrategy.WYHASH) {
+            // credit: wyhash by Wang Yi, reduced to its 64-bit multiply-and-fold step
+            long seed = wymix(nameWord0 ^ WY_P0, nameWord1 ^ WY_P1);
+            for (int i = 2 * Long.BYTES; i <= lastWordPos; i += Long.BYTES) {
+                long word = i == lastWordPos ? lastNameWord : getLong(nameStartOffset + i);
+                seed = wymix(word ^ WY_P1, seed);
+            }
+            return wymix(seed ^ WY_P0, nameLen ^ WY_P1);
+        }
+        long hash = hash(nameWord0) ^ nameWord1;
+        for (int i = 2 * Long.BYTES; i <= lastWordPos; i += Long.BYTES) {
+            long word = i == lastWordPos ? lastNameWord : getLong(nameStartOffset + i);
+            hash = hash(hash) ^ word;
+        }
+        return hash(hash);
+    }
+
+    private static long wymix(long a, long b) {
+        return Math.multiplyHigh(a, b) ^ (a * b);
+    }
+
+    static String longToString(long word) {
+        final ByteBuffer buf = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+        buf.clear();
+        buf.putLong(word);
+        return new String(buf.array(), StandardCharsets.UTF_8);
+    }
+}
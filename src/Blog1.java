@@ -15,7 +15,7 @@ public class Blog1 {
         System.err.format("Took %,d ms\n", System.currentTimeMillis() - start);
     }
 
-    private static void calculate() throws Exception {
+    static void calculate() throws Exception {
         var allStats = new BufferedReader(new FileReader("measurements.txt"))
                 .lines()
                 .parallel()
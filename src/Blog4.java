@@ -33,7 +33,7 @@ public class Blog4 {
         System.err.format("Took %,d ms\n", System.currentTimeMillis() - clockStart);
     }
 
-    private static void calculate() throws Exception {
+    static void calculate() throws Exception {
         final File file = new File("measurements.txt");
         final long length = file.length();
         final int chunkCount = Runtime.getRuntime().availableProcessors();
@@ -78,7 +78,7 @@ public class Blog4 {
         System.out.println(totalsMap);
     }
 
-    private static class ChunkProcessor implements Runnable {
+    static class ChunkProcessor implements Runnable {
         private static final int HASHTABLE_SIZE = 4096;
         private final long inputBase;
         private final long inputSize;
@@ -175,7 +175,7 @@ public class Blog4 {
 
         // credit: merykitty
         // word contains the number: X.X, -X.X, XX.X or -XX.X
-        private static int parseTemperatureOG(long word, int dotPos) {
+        static int parseTemperatureOG(long word, int dotPos) {
             // signed is -1 if negative, 0 otherwise
             final long signed = (~word << 59) >> 63;
             final long removeSignMask = ~(signed & 0xFF);
@@ -204,7 +204,7 @@ public class Blog4 {
         }
 
         // credit: merykitty and royvanrijn
-        private static int parseTemperature(long numberBytes, int dotPos) {
+        static int parseTemperature(long numberBytes, int dotPos) {
             // numberBytes contains the number: X.X, -X.X, XX.X or -XX.X
             final long invNumberBytes = ~numberBytes;
 
@@ -225,7 +225,7 @@ public class Blog4 {
             return (Long.numberOfTrailingZeros(separator) >>> 3) + 1;
         }
 
-        private static long hash(long prevHash, long word) {
+        static long hash(long prevHash, long word) {
             return Long.rotateLeft((prevHash ^ word) * 0x51_7c_c1_b7_27_22_0a_95L, 13);
         }
     }
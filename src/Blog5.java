@@ -35,7 +35,7 @@ public class Blog5 {
         System.err.format("Took %,d ms\n", System.currentTimeMillis() - clockStart);
     }
 
-    private static void calculate() throws Exception {
+    static void calculate() throws Exception {
         final File file = new File("measurements.txt");
         final long length = file.length();
         final int chunkCount = Runtime.getRuntime().availableProcessors();
@@ -1,397 +1,308 @@
-import sun.misc.Unsafe;
-
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
-import java.lang.reflect.Field;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.channels.FileChannel.MapMode;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Objects;
+import java.util.List;
 import java.util.TreeMap;
-import java.util.concurrent.atomic.AtomicInteger;
-
-import static java.lang.ProcessBuilder.Redirect.PIPE;
-import static java.lang.foreign.ValueLayout.JAVA_BYTE;
-import static java.util.Arrays.asList;
 
 public class Blog6 {
-    static final int CHUNK_SIZE = 2 * 1024 * 1024;
-    static int chunkCount;
-    static StationStats[][] results;
-    static long baseAddress;
-    static final AtomicInteger chunkSelector = new AtomicInteger();
-    private static final Unsafe UNSAFE = unsafe();
-
-    private static Unsafe unsafe() {
-        try {
-            Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
-            theUnsafe.setAccessible(true);
-            return (Unsafe) theUnsafe.get(Unsafe.class);
-        }
-        catch (NoSuchFieldException | IllegalAccessException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    static long getLong(long address) {
-        return UNSAFE.getLong(address);
-    }
-
-    static byte getByte(long address) {
-        return UNSAFE.getByte(address);
-    }
+    private static final String USAGE = """
+            Usage: blog6.sh [OPTION]... [FILE]...
+            Aggregates the min/mean/max temperature per station of FILE..., measurements.txt
+            by default, or of stdin with -.
+
+            Input formats, recognized by their magic numbers:
+              text           lines of <station>;<temperature>
+              gzip           a stream of gzip members, inflated on one thread while the
+                             workers parse, so about as fast as one core inflates
+              BGZF           blocked gzip from bgzip, decompressed in parallel
+              LZ4 frames     from the lz4 tool, decompressed in parallel, or on one thread
+                             if the blocks are linked (lz4 -BD)
+              columnar       converted with java ColumnarFile convert, scanned without
+                             parsing, so only --threads and --snapshot apply
+            zstd isn't supported: decompress it, or recompress it with bgzip or lz4.
+            When any input is compressed, the uncompressed, BGZF and independent LZ4 inputs
+            share one pool of workers, without --numa, --madvise and --direct. Each gzip
+            and linked LZ4 input gets a run of its own.
+
+            Options:
+              --threads N          worker threads, all CPUs by default
+              --chunk-size BYTES   fixed chunk size instead of the tuned one
+              --engine swar|vector the scanning engine
+              --interleaved        parse three lines of each chunk in lockstep
+              --prefetch           touch the table slots a few lines ahead
+              --hash first-word|all-words|wyhash
+                                   how station names are hashed
+              --hash-stats         print the table's probe lengths and collisions
+              --percentiles        collect exact percentiles
+              --numa               pin the workers to NUMA nodes
+              --madvise            give the kernel sequential read hints and prefault
+              --direct             read with O_DIRECT instead of mapping the files
+              --state FILE         aggregate only what was appended since the last run,
+                                   for a single text file, without --percentiles
+              --snapshot FILE      also save the totals as a binary snapshot
+              --worker-stats       print the per-worker timing and row counts
+              --stats-json FILE    write the worker stats as JSON
+              --help               print this help
+            """;
 
     public static void main(String[] args) throws Exception {
-        if (args.length >= 1 && args[0].equals("--worker")) {
-            var start = System.currentTimeMillis();
-            calculate();
-            System.err.format("Took %,d ms\n", System.currentTimeMillis() - start);
-            System.out.close();
-            return;
-        }
-        var curProcInfo = ProcessHandle.current().info();
-        var cmdLine = new ArrayList<String>();
-        cmdLine.add(curProcInfo.command().get());
-        cmdLine.addAll(asList(curProcInfo.arguments().get()));
-        cmdLine.add("--worker");
-        var process = new ProcessBuilder()
-                .command(cmdLine)
-                .inheritIO().redirectOutput(PIPE)
-                .start()
-                .getInputStream().transferTo(System.out);
-
+        Launcher.launch(Blog6.class, args, Blog6::run);
     }
 
-    private static void calculate() throws Exception {
-        final File file = new File("measurements.txt");
-        final long length = file.length();
-        chunkCount = (int) ((length / CHUNK_SIZE - 1) + 1);
-        var threadCount = Runtime.getRuntime().availableProcessors();
-        results = new StationStats[threadCount][];
-        try (var raf = new RandomAccessFile(file, "r")) {
-            final var mappedFile = raf.getChannel().map(MapMode.READ_ONLY, 0, length, Arena.global());
-            baseAddress = mappedFile.address();
-            var threads = new Thread[threadCount];
-            for (int i = 0; i < threadCount; i++) {
-                threads[i] = new Thread(new ChunkProcessor(i));
-            }
-            for (var thread : threads) {
-                thread.start();
-            }
-            for (var thread : threads) {
-                thread.join();
+    // The work of the child process, see Launcher
+    private static int run(String[] args) throws Exception {
+        var start = System.currentTimeMillis();
+        var fileNames = new ArrayList<String>();
+        String stateFile = null;
+        String snapshotFile = null;
+        boolean percentiles = false;
+        var engine = Aggregator.Engine.SWAR;
+        boolean interleaved = false;
+        boolean prefetch = false;
+        var hashStrategy = Aggregator.HashStrategy.FIRST_WORD;
+        boolean hashStats = false;
+        boolean workerStats = false;
+        String statsJsonFile = null;
+        boolean numa = false;
+        boolean madvise = false;
+        boolean directIo = false;
+        int threadCount = 0;
+        int chunkSize = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--state") && i + 1 < args.length) {
+                stateFile = args[++i];
+            } else if (args[i].equals("--snapshot") && i + 1 < args.length) {
+                snapshotFile = args[++i];
+            } else if (args[i].equals("--percentiles")) {
+                percentiles = true;
+            } else if (args[i].equals("--interleaved")) {
+                interleaved = true;
+            } else if (args[i].equals("--prefetch")) {
+                prefetch = true;
+            } else if (args[i].equals("--hash") && i + 1 < args.length) {
+                hashStrategy = Aggregator.HashStrategy.valueOf(args[++i].toUpperCase().replace('-', '_'));
+            } else if (args[i].equals("--hash-stats")) {
+                hashStats = true;
+            } else if (args[i].equals("--worker-stats")) {
+                workerStats = true;
+            } else if (args[i].equals("--stats-json") && i + 1 < args.length) {
+                statsJsonFile = args[++i];
+            } else if (args[i].equals("--numa")) {
+                numa = true;
+            } else if (args[i].equals("--madvise")) {
+                madvise = true;
+            } else if (args[i].equals("--direct")) {
+                directIo = true;
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                threadCount = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--chunk-size") && i + 1 < args.length) {
+                chunkSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--help")) {
+                System.out.print(USAGE);
+                return 0;
+            } else if (args[i].equals("--engine") && i + 1 < args.length) {
+                engine = Aggregator.Engine.valueOf(args[++i].toUpperCase());
+            } else {
+                fileNames.add(args[i]);
             }
         }
-        var totalsMap = new TreeMap<String, StationStats>();
-        for (var statsArray : results) {
-            for (var stats : statsArray) {
-                totalsMap.merge(stats.name, stats, (old, curr) -> {
-                    old.count += curr.count;
-                    old.sum += curr.sum;
-                    old.min = Math.min(old.min, curr.min);
-                    old.max = Math.max(old.max, curr.max);
-                    return old;
-                });
-            }
+        if (fileNames.isEmpty()) {
+            fileNames.add("measurements.txt");
         }
-        System.out.println(totalsMap);
-    }
-
-    private static class ChunkProcessor implements Runnable {
-        private static final int HASHTABLE_SIZE = 4096;
-        private final int myIndex;
-        private final StatsAcc[] hashtable = new StatsAcc[HASHTABLE_SIZE];
-
-        ChunkProcessor(int myIndex) {
-            this.myIndex = myIndex;
-        }
-
-        @Override public void run() {
-            while (true) {
-                var selectedChunk = chunkSelector.getAndIncrement();
-                if (selectedChunk >= chunkCount) {
-                    break;
-                }
-                var chunkBase = baseAddress + (long) selectedChunk * CHUNK_SIZE;
-                var chunkLimit = baseAddress + (long) (selectedChunk + 1) * CHUNK_SIZE;
-                if (selectedChunk > 0) {
-                    chunkBase--;
-                    while (getByte(chunkBase) != '\n') {
-                        chunkBase++;
-                    }
-                    chunkBase++;
+        // The state records the offset and totals of one text file, without histograms
+        if (stateFile != null) {
+            String error = null;
+            if (fileNames.size() > 1) {
+                error = "--state takes a single input file";
+            } else if (fileNames.get(0).equals("-")) {
+                error = "--state needs an input file, not stdin";
+            } else if (percentiles) {
+                error = "--state doesn't keep the histograms, so it can't be combined with --percentiles";
+            } else {
+                var format = format(new File(fileNames.get(0)));
+                if (!format.equals("text")) {
+                    error = "--state only reads text input, " + fileNames.get(0) + " is " + format;
                 }
-                processChunk(chunkBase, chunkLimit);
             }
-            results[myIndex] = Arrays
-                    .stream(hashtable)
-                    .filter(Objects::nonNull)
-                    .map(StationStats::new)
-                    .toArray(StationStats[]::new);
+            if (error != null) {
+                return usageError(error);
+            }
         }
-
-        private void processChunk(long chunkBase, long chunkLimit) {
-            long cursor = chunkBase;
-            long lastNameWord;
-            while (cursor < chunkLimit) {
-                long nameStartOffset = cursor;
-                long nameWord0 = getLong(nameStartOffset);
-                long nameWord1 = getLong(nameStartOffset + Long.BYTES);
-                long matchBits0 = semicolonMatchBits(nameWord0);
-                long matchBits1 = semicolonMatchBits(nameWord1);
-
-                int temperature;
-                StatsAcc acc;
-                long hash;
-                int nameLen;
-                if ((matchBits0 | matchBits1) != 0) {
-                    int nameLen0 = nameLen(matchBits0);
-                    int nameLen1 = nameLen(matchBits1);
-                    nameWord0 = maskWord(nameWord0, matchBits0);
-                    long nameWord1Mask = (long) nameLen0 << 60 >> 63;
-                    nameWord1 = maskWord(nameWord1, matchBits1) & nameWord1Mask;
-                    nameLen1 &= (int) (nameWord1Mask & 0b111);
-                    nameLen = nameLen0 + nameLen1 + 1;
-                    lastNameWord = (nameWord0 & ~nameWord1Mask) | nameWord1;
-
-                    cursor += nameLen;
-                    long tempWord = getLong(cursor);
-                    int dotPos = dotPos(tempWord);
-                    temperature = parseTemperature(tempWord, dotPos);
-
-                    cursor += (dotPos >> 3) + 3;
-                    hash = hash(nameWord0);
-                    acc = findAcc2(hash, nameWord0, nameWord1);
-                    if (acc != null) {
-                        acc.observe(temperature);
-                        continue;
-                    }
-                } else {
-                    hash = hash(nameWord0);
-                    nameLen = 2 * Long.BYTES;
-                    while (true) {
-                        lastNameWord = getLong(nameStartOffset + nameLen);
-                        long matchBits = semicolonMatchBits(lastNameWord);
-                        if (matchBits != 0) {
-                            nameLen += nameLen(matchBits) + 1;
-                            lastNameWord = maskWord(lastNameWord, matchBits);
-                            cursor += nameLen;
-                            long tempWord = getLong(cursor);
-                            int dotPos = dotPos(tempWord);
-                            temperature = parseTemperature(tempWord, dotPos);
-                            cursor += (dotPos >> 3) + 3;
-                            break;
-                        }
-                        nameLen += Long.BYTES;
-                    }
+        boolean stdin = fileNames.equals(List.of("-"));
+        var files = stdin ? List.<File>of() : expandGlobs(fileNames);
+        var formats = new ArrayList<String>();
+        for (var file : files) {
+            formats.add(format(file));
+        }
+        // Columnar files are scanned without parsing or hashing, so none of the
+        // options for those apply
+        if (formats.contains("columnar")) {
+            for (int i = 0; i < files.size(); i++) {
+                if (!formats.get(i).equals("columnar")) {
+                    return usageError("Can't mix columnar and other input files: "
+                            + files.get(formats.indexOf("columnar")) + " is columnar, "
+                            + files.get(i) + " is " + formats.get(i));
                 }
-                ensureAcc(hash, nameStartOffset, nameLen, nameWord0, nameWord1, lastNameWord).observe(temperature);
             }
-        }
-
-        private StatsAcc findAcc2(long hash, long nameWord0, long nameWord1) {
-            int slotPos = (int) hash & (HASHTABLE_SIZE - 1);
-            var acc = hashtable[slotPos];
-            if (acc != null && acc.hash == hash && acc.nameEquals2(nameWord0, nameWord1)) {
-                return acc;
+            var ignored = new ArrayList<String>();
+            addIf(ignored, chunkSize != 0, "--chunk-size");
+            addIf(ignored, engine != Aggregator.Engine.SWAR, "--engine");
+            addIf(ignored, interleaved, "--interleaved");
+            addIf(ignored, prefetch, "--prefetch");
+            addIf(ignored, hashStrategy != Aggregator.HashStrategy.FIRST_WORD, "--hash");
+            addIf(ignored, hashStats, "--hash-stats");
+            addIf(ignored, percentiles, "--percentiles");
+            addIf(ignored, numa, "--numa");
+            addIf(ignored, madvise, "--madvise");
+            addIf(ignored, directIo, "--direct");
+            addIf(ignored, workerStats, "--worker-stats");
+            addIf(ignored, statsJsonFile != null, "--stats-json");
+            if (!ignored.isEmpty()) {
+                return usageError(String.join(", ", ignored) + " can't be used with columnar input");
             }
-            return null;
         }
-
-        private StatsAcc ensureAcc(
-                long hash, long nameStartOffset, int nameLen, long nameWord0, long nameWord1, long lastNameWord
-        ) {
-            int initialPos = (int) hash & (HASHTABLE_SIZE - 1);
-            int slotPos = initialPos;
-            while (true) {
-                var acc = hashtable[slotPos];
-                if (acc == null) {
-                    acc = new StatsAcc(hash, nameStartOffset, nameLen, nameWord0, nameWord1, lastNameWord);
-                    hashtable[slotPos] = acc;
-                    return acc;
-                }
-                if (acc.hash == hash && acc.nameEquals(nameStartOffset, nameLen, nameWord0, nameWord1, lastNameWord)) {
-                    return acc;
-                }
-                slotPos = (slotPos + 1) & (HASHTABLE_SIZE - 1);
-                if (slotPos == initialPos) {
-                    throw new RuntimeException(String.format("hash %x, acc.hash %x", hash, acc.hash));
-                }
+        if (anyCompressed(formats)) {
+            var ignored = new ArrayList<String>();
+            addIf(ignored, numa, "--numa");
+            addIf(ignored, madvise, "--madvise");
+            addIf(ignored, directIo, "--direct");
+            if (!ignored.isEmpty()) {
+                System.err.println(String.join(", ", ignored) + " don't apply when an input is compressed, ignoring");
             }
         }
-
-        private static final long BROADCAST_SEMICOLON = 0x3B3B3B3B3B3B3B3BL;
-        private static final long BROADCAST_0x01 = 0x0101010101010101L;
-        private static final long BROADCAST_0x80 = 0x8080808080808080L;
-
-        private static long semicolonMatchBits(long word) {
-            long diff = word ^ BROADCAST_SEMICOLON;
-            return (diff - BROADCAST_0x01) & (~diff & BROADCAST_0x80);
+        var aggregator = new Aggregator().percentiles(percentiles).engine(engine).interleaved(interleaved)
+                .prefetch(prefetch);
+        aggregator.hashStrategy(hashStrategy).collectHashStats(hashStats).numa(numa).madvise(madvise)
+                .collectPageFaults(workerStats || statsJsonFile != null).directIo(directIo);
+        if (threadCount != 0) {
+            aggregator.threadCount(threadCount);
         }
-
-        // credit: artsiomkorzun
-        private static long maskWord(long word, long matchBits) {
-            long mask = matchBits ^ (matchBits - 1);
-            return word & mask;
+        if (chunkSize != 0) {
+            aggregator.chunkSize(chunkSize);
         }
-
-        private static final long DOT_BITS = 0x10101000;
-        private static final long MAGIC_MULTIPLIER = (100 * 0x1000000 + 10 * 0x10000 + 1);
-
-        // credit: merykitty
-        // Bit 4 of the ascii of a digit is 1, while that of '.' is 0.
-        // This finds the decimal separator. The value can be 12, 20, 28.
-        private static int dotPos(long word) {
-            return Long.numberOfTrailingZeros(~word & DOT_BITS);
+        if (aggregator.engine() != engine) {
+            System.err.println("The vector engine isn't supported here, using SWAR");
         }
-
-        // credit: merykitty and royvanrijn
-        private static int parseTemperature(long numberBytes, int dotPos) {
-            // numberBytes contains the number: X.X, -X.X, XX.X or -XX.X
-            final long invNumberBytes = ~numberBytes;
-
-            // Calculates the sign
-            final long signed = (invNumberBytes << 59) >> 63;
-            final int _28MinusDotPos = (dotPos ^ 0b11100);
-            final long minusFilter = ~(signed & 0xFF);
-            // Use the pre-calculated decimal position to adjust the values
-            final long digits = ((numberBytes & minusFilter) << _28MinusDotPos) & 0x0F000F0F00L;
-
-            // Multiply by a magic (100 * 0x1000000 + 10 * 0x10000 + 1), to get the result
-            final long absValue = ((digits * MAGIC_MULTIPLIER) >>> 32) & 0x3FF;
-            // And apply sign
-            return (int) ((absValue + signed) ^ signed);
+        var totals = stateFile != null
+                ? aggregator.aggregateAppended(Path.of(fileNames.get(0)), Path.of(stateFile))
+                : calculate(aggregator, stdin, files, formats);
+        if (snapshotFile != null) {
+            new Snapshot(0, totals).save(Path.of(snapshotFile));
         }
-
-        private static int nameLen(long separator) {
-            return (Long.numberOfTrailingZeros(separator) >>> 3);
+        System.out.println(totals);
+        if (aggregator.hashStats() != null) {
+            System.err.print(aggregator.hashStats());
         }
-
-        private static long hash(long word) {
-            return Long.rotateLeft(word * 0x51_7c_c1_b7_27_22_0a_95L, 17);
+        if (workerStats) {
+            System.err.print(aggregator.schedulingReport());
+        }
+        if (statsJsonFile != null) {
+            Files.writeString(Path.of(statsJsonFile), aggregator.workerStatsJson());
         }
+        System.err.format("Took %,d ms\n", System.currentTimeMillis() - start);
+        return 0;
     }
 
-    static class StatsAcc {
-        private static final long[] emptyTail = new long[0];
-
-        long nameWord0;
-        long nameWord1;
-        long[] nameTail;
-        long hash;
-        int nameLen;
-        int sum;
-        int count;
-        int min;
-        int max;
-
-        public StatsAcc(long hash, long nameStartOffset, int nameLen, long nameWord0, long nameWord1, long lastNameWord) {
-            this.hash = hash;
-            this.nameLen = nameLen;
-            this.nameWord0 = nameWord0;
-            this.nameWord1 = nameWord1;
-            int nameTailLen = (nameLen - 1) / 8 - 1;
-            if (nameTailLen > 0) {
-                nameTail = new long[nameTailLen];
-                int i = 0;
-                for (; i < nameTailLen - 1; i++) {
-                    nameTail[i] = getLong(nameStartOffset + (i + 2L) * Long.BYTES);
-                }
-                nameTail[i] = lastNameWord;
-            } else {
-                nameTail = emptyTail;
+    private static TreeMap<String, StationStats> calculate(
+            Aggregator aggregator, boolean stdin, List<File> files, List<String> formats) throws Exception {
+        if (stdin) {
+            try (var channel = new FileInputStream(FileDescriptor.in).getChannel()) {
+                return aggregator.aggregate(channel);
             }
         }
-
-        boolean nameEquals2(long nameWord0, long nameWord1) {
-            return this.nameWord0 == nameWord0 && this.nameWord1 == nameWord1;
-        }
-
-        private static final int NAMETAIL_OFFSET = 2 * Long.BYTES;
-
-        boolean nameEquals(
-                long inputNameStart, long inputNameLen, long inputWord0, long inputWord1, long lastInputWord
-        ) {
-            boolean mismatch0 = inputWord0 != nameWord0;
-            boolean mismatch1 = inputWord1 != nameWord1;
-            boolean mismatch = mismatch0 | mismatch1;
-            if (mismatch | inputNameLen <= NAMETAIL_OFFSET) {
-                return !mismatch;
+        if (formats.contains("columnar")) {
+            var totals = new TreeMap<String, StationStats>();
+            for (var file : files) {
+                aggregator.aggregateColumnar(file.toPath()).forEach(
+                        (name, stats) -> totals.merge(name, stats, StationStats::merge));
             }
-            int i = NAMETAIL_OFFSET;
-            for (; i <= inputNameLen - Long.BYTES; i += Long.BYTES) {
-                if (getLong(inputNameStart + i) != nameTail[(i - NAMETAIL_OFFSET) / 8]) {
-                    return false;
-                }
-            }
-            return i == inputNameLen || lastInputWord == nameTail[(i - NAMETAIL_OFFSET) / 8];
+            return totals;
         }
-
-        void observe(int temperature) {
-            sum += temperature;
-            count++;
-            min = Math.min(min, temperature);
-            max = Math.max(max, temperature);
+        if (anyCompressed(formats)) {
+            return aggregator.aggregateCompressed(files.stream().map(File::toPath).toList());
         }
-
-        String exportNameString() {
-            var buf = ByteBuffer.allocate((2 + nameTail.length) * 8).order(ByteOrder.LITTLE_ENDIAN);
-            buf.putLong(nameWord0);
-            buf.putLong(nameWord1);
-            for (long nameWord : nameTail) {
-                buf.putLong(nameWord);
+        if (aggregator.directIo()) {
+            return aggregator.aggregateFiles(files.stream().map(File::toPath).toList());
+        }
+        var segments = new ArrayList<MemorySegment>();
+        for (var file : files) {
+            try (var raf = new RandomAccessFile(file, "r")) {
+                // Mapped into the global arena, so we don't pay for munmap before exiting
+                segments.add(raf.getChannel().map(MapMode.READ_ONLY, 0, file.length(), Arena.global()));
             }
-            buf.flip();
-            final var bytes = new byte[nameLen - 1];
-            buf.get(bytes);
-            return new String(bytes, StandardCharsets.UTF_8);
         }
+        return aggregator.aggregateSegments(segments);
     }
 
-    static class StationStats implements Comparable<StationStats> {
-        String name;
-        long sum;
-        int count;
-        int min;
-        int max;
-
-        StationStats(StatsAcc acc) {
-            name = acc.exportNameString();
-            sum = acc.sum;
-            count = acc.count;
-            min = acc.min;
-            max = acc.max;
+    private static boolean anyCompressed(List<String> formats) {
+        for (var format : formats) {
+            if (!format.equals("text") && !format.equals("columnar")) {
+                return true;
+            }
         }
+        return false;
+    }
 
-        @Override
-        public String toString() {
-            return String.format("%.1f/%.1f/%.1f", min / 10.0, Math.round((double) sum / count) / 10.0, max / 10.0);
+    // Checks the magic numbers, rather than the file names. What isn't a regular file
+    // is left for the aggregation to report.
+    private static String format(File file) throws IOException {
+        if (!file.isFile()) {
+            return "text";
         }
-
-        @Override
-        public boolean equals(Object that) {
-            return that.getClass() == StationStats.class && ((StationStats) that).name.equals(this.name);
+        if (ColumnarFile.isColumnar(file.toPath())) {
+            return "columnar";
+        }
+        try (var raf = new RandomAccessFile(file, "r")) {
+            var header = new byte[64];
+            int read = raf.read(header);
+            var compression = read < 0 ? Aggregator.Compression.NONE
+                    : CompressedBlockQueue.detect(MemorySegment.ofArray(header).asSlice(0, read));
+            return switch (compression) {
+                case NONE -> "text";
+                case GZIP -> "gzip";
+                case BGZF -> "BGZF";
+                case LZ4 -> "LZ4";
+                case ZSTD -> "zstd";
+            };
         }
+    }
 
-        @Override
-        public int compareTo(StationStats that) {
-            return name.compareTo(that.name);
+    private static void addIf(List<String> options, boolean condition, String option) {
+        if (condition) {
+            options.add(option);
         }
     }
 
-    static String stringAt(MemorySegment chunk, long start, long len) {
-        return new String(chunk.asSlice(start, len).toArray(JAVA_BYTE), StandardCharsets.UTF_8);
+    private static int usageError(String message) {
+        System.err.print(message + "\n\n" + USAGE);
+        return 1;
     }
 
-    static String longToString(long word) {
-        final ByteBuffer buf = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
-        buf.clear();
-        buf.putLong(word);
-        return new String(buf.array(), StandardCharsets.UTF_8);
+    // Expands the patterns like "data/2024-01-*.txt" that the shell didn't expand
+    private static List<File> expandGlobs(List<String> fileNames) throws Exception {
+        var files = new ArrayList<File>();
+        for (var fileName : fileNames) {
+            var path = Path.of(fileName);
+            if (Files.exists(path) || !fileName.matches(".*[*?\\[{].*")) {
+                files.add(path.toFile());
+                continue;
+            }
+            var dir = path.getParent() != null ? path.getParent() : Path.of(".");
+            try (var matches = Files.newDirectoryStream(dir, path.getFileName().toString())) {
+                var sorted = new ArrayList<File>();
+                matches.forEach(match -> sorted.add(match.toFile()));
+                sorted.sort(null);
+                files.addAll(sorted);
+            }
+        }
+        return files;
     }
 }
@@ -0,0 +1,484 @@
+import sun.misc.Unsafe;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+// The measurements in a columnar binary file, for inputs that are aggregated over and
+// over. The text is parsed once, by the conversion, and each station name is replaced
+// by a dictionary id. Aggregating the file is then a scan of two short columns into
+// accumulators indexed by the id, with no parsing and no hashing:
+//
+//     java ColumnarFile convert measurements.txt measurements.col
+//     java ColumnarFile print measurements.col
+//
+// Blog6 and Aggregator.aggregateColumnar() read the converted file too.
+//
+// The conversion makes two passes. The first is a plain aggregation, which gives the
+// sorted station names, so the ids are in name order and the id width is known
+// before any row is written. In the second the workers parse the chunks of the input
+// and each chunk becomes a row group, written wherever the file has room for it.
+// The scan hands out the row groups to the workers the same way.
+//
+// Layout, all little-endian:
+//
+// header (64 bytes):
+//  0: magic "1BRC"
+//  4: format version
+//  8: station count
+// 12: id width in bytes, 2 for up to 65,536 stations, 4 otherwise
+// 16: row count
+// 24: row group count
+// 28: reserved
+// 32: offset of the row group index
+// 40: offset of the dictionary
+// 48: reserved
+//
+// row groups, each at an 8-byte aligned offset:
+//  the station ids of the rows, unsigned, padded to a multiple of 8 bytes
+//  the temperatures of the rows in tenths of a degree, 2 bytes each, padded to a
+//  multiple of 8 bytes
+//
+// row group index, one record per row group (16 bytes each):
+//  0: offset of the row group
+//  8: row count
+// 12: reserved
+//
+// dictionary: for each station in id order, the length of its name (4 bytes) and
+// the UTF-8 encoded name
+public class ColumnarFile {
+    private static final Unsafe UNSAFE = Aggregator.UNSAFE;
+
+    private static final int MAGIC = 0x43524231; // "1BRC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int INDEX_RECORD_SIZE = 16;
+    private static final int TEMPERATURE_WIDTH = 2;
+    // The shortest line is "a;0.0\n"
+    private static final int MIN_LINE_SIZE = 6;
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    // Each station's sum, count, min and max, one after the other
+    private static final int ACC_SIZE = 4;
+
+    public static void main(String[] args) throws Exception {
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        if (args.length == 3 && args[0].equals("convert")) {
+            var start = System.currentTimeMillis();
+            long rows = convert(Path.of(args[1]), Path.of(args[2]), threadCount);
+            System.err.format("Converted %,d rows in %,d ms\n", rows, System.currentTimeMillis() - start);
+        } else if (args.length == 2 && args[0].equals("print")) {
+            var start = System.currentTimeMillis();
+            System.out.println(aggregate(Path.of(args[1]), threadCount));
+            System.err.format("Took %,d ms\n", System.currentTimeMillis() - start);
+        } else {
+            System.err.println("Usage: java ColumnarFile convert IN OUT | print IN");
+            System.exit(1);
+        }
+    }
+
+    // Checks the magic number, so a text input is never mistaken for a columnar file
+    static boolean isColumnar(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, READ)) {
+            var magic = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (magic.hasRemaining() && channel.read(magic) > 0) {
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    // Converts the text input and returns the number of rows. Writes to a temporary
+    // file first, so a crash never leaves a half-written file.
+    static long convert(Path input, Path output, int threadCount) throws IOException {
+        var names = new ArrayList<>(new Aggregator().threadCount(threadCount).aggregate(input).keySet());
+        var ids = new HashMap<String, Integer>();
+        for (var name : names) {
+            ids.put(name, ids.size());
+        }
+        int idWidth = names.size() <= 65536 ? 2 : 4;
+        var tmpPath = output.resolveSibling(output.getFileName() + ".tmp");
+        long rows = 0;
+        try (var inputChannel = FileChannel.open(input, READ);
+             var channel = FileChannel.open(tmpPath, CREATE, WRITE, TRUNCATE_EXISTING);
+             var arena = Arena.ofShared()
+        ) {
+            var segment = inputChannel.map(MapMode.READ_ONLY, 0, inputChannel.size(), arena);
+            var chunkQueue = new Aggregator.ChunkQueue(List.of(segment), Aggregator.DEFAULT_CHUNK_SIZE);
+            var writer = new RowGroupWriter(channel, HEADER_SIZE);
+            var threads = new Thread[threadCount];
+            for (int i = 0; i < threadCount; i++) {
+                threads[i] = new Thread(() -> {
+                    var processor = new ConvertingChunkProcessor(ids, idWidth, writer);
+                    try {
+                        chunkQueue.processAll(processor);
+                    }
+                    catch (RuntimeException e) {
+                        writer.error = new IOException("Can't convert " + input, e);
+                    }
+                    finally {
+                        processor.free();
+                    }
+                });
+                threads[i].start();
+            }
+            joinAll(threads);
+            if (writer.error != null) {
+                throw writer.error;
+            }
+            var groups = writer.groups;
+            var index = ByteBuffer.allocate(groups.size() * INDEX_RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (var group : groups) {
+                index.putLong(group[0]).putInt((int) group[1]).putInt(0);
+                rows += group[1];
+            }
+            long indexOffset = writer.nextOffset.get();
+            write(channel, index.flip(), indexOffset);
+
+            var nameBytes = new byte[names.size()][];
+            int dictionarySize = 0;
+            for (int i = 0; i < names.size(); i++) {
+                nameBytes[i] = names.get(i).getBytes(StandardCharsets.UTF_8);
+                dictionarySize += Integer.BYTES + nameBytes[i].length;
+            }
+            var dictionary = ByteBuffer.allocate(dictionarySize).order(ByteOrder.LITTLE_ENDIAN);
+            for (var name : nameBytes) {
+                dictionary.putInt(name.length).put(name);
+            }
+            long dictionaryOffset = indexOffset + index.capacity();
+            write(channel, dictionary.flip(), dictionaryOffset);
+
+            var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(names.size()).putInt(idWidth)
+                  .putLong(rows).putInt(groups.size()).putInt(0)
+                  .putLong(indexOffset).putLong(dictionaryOffset).putLong(0).putLong(0);
+            write(channel, header.flip(), 0);
+        }
+        Files.move(tmpPath, output, REPLACE_EXISTING, ATOMIC_MOVE);
+        return rows;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buf, long offset) throws IOException {
+        while (buf.hasRemaining()) {
+            offset += channel.write(buf, offset);
+        }
+    }
+
+    private static void joinAll(Thread[] threads) {
+        try {
+            for (var thread : threads) {
+                thread.join();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static long align8(long size) {
+        return (size + 7) & -8;
+    }
+
+    // Reserves room for the row groups at the end of the file and keeps the index
+    private static class RowGroupWriter {
+        final FileChannel channel;
+        final AtomicLong nextOffset;
+        // The offset and row count of each row group
+        final List<long[]> groups = new ArrayList<>();
+        volatile IOException error;
+
+        RowGroupWriter(FileChannel channel, long firstOffset) {
+            this.channel = channel;
+            this.nextOffset = new AtomicLong(firstOffset);
+        }
+
+        void write(long address, long size, int rows) {
+            if (rows == 0 || error != null) {
+                return;
+            }
+            long offset = nextOffset.getAndAdd(size);
+            try {
+                ColumnarFile.write(channel, MemorySegment.ofAddress(address).reinterpret(size).asByteBuffer(), offset);
+            }
+            catch (IOException e) {
+                error = e;
+                return;
+            }
+            synchronized (groups) {
+                groups.add(new long[] { offset, rows });
+            }
+        }
+    }
+
+    // Parses the lines of a chunk like Aggregator.ChunkProcessor and writes their ids
+    // and temperatures as a row group. The table only maps each name to its id: an
+    // unknown name is looked up in the dictionary once, and its id kept in its slot.
+    private static class ConvertingChunkProcessor implements Aggregator.ChunkHandler {
+        private final StationTable table = new StationTable();
+        private final Map<String, Integer> ids;
+        private final int idWidth;
+        private final RowGroupWriter writer;
+        private long buffer;
+        private long bufferSize;
+
+        ConvertingChunkProcessor(Map<String, Integer> ids, int idWidth, RowGroupWriter writer) {
+            this.ids = ids;
+            this.idWidth = idWidth;
+            this.writer = writer;
+        }
+
+        @Override
+        public void processChunk(long chunkBase, long chunkLimit) {
+            long maxRows = (chunkLimit - chunkBase) / MIN_LINE_SIZE + 1;
+            long maxIdsSize = align8(maxRows * idWidth);
+            long size = maxIdsSize + align8(maxRows * TEMPERATURE_WIDTH);
+            if (size > bufferSize) {
+                UNSAFE.freeMemory(buffer);
+                buffer = UNSAFE.allocateMemory(size);
+                bufferSize = size;
+            }
+            long idCursor = buffer;
+            long temperatureCursor = buffer + maxIdsSize;
+            long cursor = chunkBase;
+            long lastNameWord;
+            while (cursor < chunkLimit) {
+                long nameStartOffset = cursor;
+                long nameWord0 = Aggregator.getLong(nameStartOffset);
+                long nameWord1 = Aggregator.getLong(nameStartOffset + Long.BYTES);
+                long matchBits0 = Aggregator.semicolonMatchBits(nameWord0);
+                long matchBits1 = Aggregator.semicolonMatchBits(nameWord1);
+
+                int nameLen;
+                boolean shortName = (matchBits0 | matchBits1) != 0;
+                if (shortName) {
+                    int nameLen0 = Aggregator.nameLen(matchBits0);
+                    int nameLen1 = Aggregator.nameLen(matchBits1);
+                    nameWord0 = Aggregator.maskWord(nameWord0, matchBits0);
+                    long nameWord1Mask = (long) nameLen0 << 60 >> 63;
+                    nameWord1 = Aggregator.maskWord(nameWord1, matchBits1) & nameWord1Mask;
+                    nameLen1 &= (int) (nameWord1Mask & 0b111);
+                    nameLen = nameLen0 + nameLen1 + 1;
+                    lastNameWord = (nameWord0 & ~nameWord1Mask) | nameWord1;
+                } else {
+                    nameLen = 2 * Long.BYTES;
+                    while (true) {
+                        lastNameWord = Aggregator.getLong(nameStartOffset + nameLen);
+                        long matchBits = Aggregator.semicolonMatchBits(lastNameWord);
+                        if (matchBits != 0) {
+                            nameLen += Aggregator.nameLen(matchBits) + 1;
+                            lastNameWord = Aggregator.maskWord(lastNameWord, matchBits);
+                            break;
+                        }
+                        nameLen += Long.BYTES;
+                    }
+                }
+                cursor += nameLen;
+                long tempWord = Aggregator.getLong(cursor);
+                int dotPos = Aggregator.dotPos(tempWord);
+                int temperature = Aggregator.parseTemperature(tempWord, dotPos);
+                cursor += (dotPos >> 3) + 3;
+
+                long hash = Aggregator.hash(nameWord0);
+                long slot = shortName ? table.findAcc2(hash, nameWord0, nameWord1) : 0;
+                if (slot == 0) {
+                    int stationCount = table.size();
+                    slot = table.ensureAcc(hash, nameStartOffset, nameLen, nameWord0, nameWord1, lastNameWord);
+                    if (table.size() != stationCount) {
+                        StationTable.setSlotId(slot, dictionaryId(slot));
+                    }
+                }
+                int id = StationTable.slotId(slot);
+                if (idWidth == 2) {
+                    UNSAFE.putShort(idCursor, (short) id);
+                } else {
+                    UNSAFE.putInt(idCursor, id);
+                }
+                UNSAFE.putShort(temperatureCursor, (short) temperature);
+                idCursor += idWidth;
+                temperatureCursor += TEMPERATURE_WIDTH;
+            }
+            int rows = (int) ((temperatureCursor - buffer - maxIdsSize) / TEMPERATURE_WIDTH);
+            // Moves the temperatures right after the ids, so the row group is contiguous
+            long idsSize = align8((long) rows * idWidth);
+            UNSAFE.copyMemory(buffer + maxIdsSize, buffer + idsSize, (long) rows * TEMPERATURE_WIDTH);
+            long groupSize = idsSize + align8((long) rows * TEMPERATURE_WIDTH);
+            UNSAFE.setMemory(buffer + idsSize + (long) rows * TEMPERATURE_WIDTH,
+                    groupSize - idsSize - (long) rows * TEMPERATURE_WIDTH, (byte) 0);
+            writer.write(buffer, groupSize, rows);
+        }
+
+        private int dictionaryId(long slot) {
+            var name = table.slotName(slot);
+            var id = ids.get(name);
+            if (id == null) {
+                // The input changed since the first pass
+                throw new IllegalStateException("Station " + name + " is missing from the dictionary");
+            }
+            return id;
+        }
+
+        void free() {
+            table.free();
+            UNSAFE.freeMemory(buffer);
+        }
+    }
+
+    // Aggregates a columnar file with the given number of threads
+    static TreeMap<String, StationStats> aggregate(Path file, int threadCount) throws IOException {
+        try (var channel = FileChannel.open(file, READ);
+             var arena = Arena.ofShared()
+        ) {
+            var input = channel.map(MapMode.READ_ONLY, 0, channel.size(), arena);
+            if (input.byteSize() < HEADER_SIZE || input.get(INT, 0) != MAGIC) {
+                throw new IOException(file + " is not a columnar file");
+            }
+            if (input.get(INT, 4) != VERSION) {
+                throw new IOException(file + " has unsupported columnar file version " + input.get(INT, 4));
+            }
+            int stationCount = input.get(INT, 8);
+            int idWidth = input.get(INT, 12);
+            int groupCount = input.get(INT, 24);
+            long indexOffset = input.get(LONG, 32);
+            long dictionaryOffset = input.get(LONG, 40);
+            if ((idWidth != 2 && idWidth != 4) || stationCount < 0 || groupCount < 0 || indexOffset < HEADER_SIZE
+                    || dictionaryOffset != indexOffset + (long) groupCount * INDEX_RECORD_SIZE
+                    || dictionaryOffset > input.byteSize()) {
+                throw new IOException(file + " is corrupt");
+            }
+            // The scan reads the columns without bounds checks, so they must be in the file
+            var groupAddresses = new long[groupCount];
+            var groupRows = new int[groupCount];
+            for (int i = 0; i < groupCount; i++) {
+                long record = indexOffset + (long) i * INDEX_RECORD_SIZE;
+                long offset = input.get(LONG, record);
+                int rows = input.get(INT, record + 8);
+                if (offset < HEADER_SIZE || rows < 0
+                        || offset + align8((long) rows * idWidth) + align8((long) rows * TEMPERATURE_WIDTH) > indexOffset) {
+                    throw new IOException(file + " is corrupt");
+                }
+                groupAddresses[i] = input.address() + offset;
+                groupRows[i] = rows;
+            }
+            var names = new String[stationCount];
+            long position = dictionaryOffset;
+            for (int i = 0; i < stationCount; i++) {
+                int nameLength = input.get(INT, position);
+                names[i] = new String(input.asSlice(position + Integer.BYTES, nameLength).toArray(ValueLayout.JAVA_BYTE),
+                        StandardCharsets.UTF_8);
+                position += Integer.BYTES + nameLength;
+            }
+
+            var nextGroup = new AtomicInteger();
+            var accs = new long[threadCount][];
+            var threads = new Thread[threadCount];
+            var errors = new RuntimeException[threadCount];
+            for (int i = 0; i < threadCount; i++) {
+                final int myIndex = i;
+                threads[i] = new Thread(() -> {
+                    try {
+                        var acc = newAcc(stationCount);
+                        while (true) {
+                            int group = nextGroup.getAndIncrement();
+                            if (group >= groupCount) {
+                                break;
+                            }
+                            if (idWidth == 2) {
+                                scanShortIds(acc, groupAddresses[group], groupRows[group]);
+                            } else {
+                                scanIntIds(acc, groupAddresses[group], groupRows[group]);
+                            }
+                        }
+                        accs[myIndex] = acc;
+                    }
+                    catch (RuntimeException e) {
+                        errors[myIndex] = e;
+                    }
+                });
+                threads[i].start();
+            }
+            joinAll(threads);
+            for (var error : errors) {
+                if (error != null) {
+                    throw new IOException("Can't aggregate " + file, error);
+                }
+            }
+
+            var totals = new TreeMap<String, StationStats>();
+            var total = newAcc(stationCount);
+            for (var acc : accs) {
+                for (int a = 0; a < acc.length; a += ACC_SIZE) {
+                    total[a] += acc[a];
+                    total[a + 1] += acc[a + 1];
+                    total[a + 2] = Math.min(total[a + 2], acc[a + 2]);
+                    total[a + 3] = Math.max(total[a + 3], acc[a + 3]);
+                }
+            }
+            for (int id = 0; id < stationCount; id++) {
+                int a = id * ACC_SIZE;
+                if (total[a + 1] != 0) {
+                    totals.put(names[id], new StationStats(names[id], total[a], total[a + 1],
+                            (int) total[a + 2], (int) total[a + 3]));
+                }
+            }
+            return totals;
+        }
+    }
+
+    private static long[] newAcc(int stationCount) {
+        var acc = new long[stationCount * ACC_SIZE];
+        for (int a = 0; a < acc.length; a += ACC_SIZE) {
+            acc[a + 2] = Integer.MAX_VALUE;
+            acc[a + 3] = Integer.MIN_VALUE;
+        }
+        return acc;
+    }
+
+    // The hot loops. One per id width, so neither has a branch on it. A corrupt id
+    // fails the array's bounds check.
+    private static void scanShortIds(long[] acc, long ids, int rows) {
+        long temperatures = ids + align8((long) rows * 2);
+        for (long i = 0; i < rows; i++) {
+            int a = (UNSAFE.getShort(ids + 2 * i) & 0xFFFF) * ACC_SIZE;
+            long temperature = UNSAFE.getShort(temperatures + 2 * i);
+            acc[a] += temperature;
+            acc[a + 1]++;
+            acc[a + 2] = Math.min(acc[a + 2], temperature);
+            acc[a + 3] = Math.max(acc[a + 3], temperature);
+        }
+    }
+
+    private static void scanIntIds(long[] acc, long ids, int rows) {
+        long temperatures = ids + align8((long) rows * 4);
+        for (long i = 0; i < rows; i++) {
+            int a = UNSAFE.getInt(ids + 4 * i) * ACC_SIZE;
+            long temperature = UNSAFE.getShort(temperatures + 2 * i);
+            acc[a] += temperature;
+            acc[a + 1]++;
+            acc[a + 2] = Math.min(acc[a + 2], temperature);
+            acc[a + 3] = Math.max(acc[a + 3], temperature);
+        }
+    }
+}
@@ -0,0 +1,573 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+// Decompresses a file made of independently compressed blocks in parallel:
+//
+// BGZF, the blocked gzip of bgzip and samtools, is a series of gzip members of at
+// most 64 KB each, whose headers give their compressed size.
+//
+// The LZ4 frame format, written by the lz4 tool, is a series of frames of blocks of
+// up to 64 KB to 4 MB, each preceded by its compressed size. The blocks of a frame
+// are independent unless the frame says they're linked, which lz4 -BD does.
+//
+// Either way the blocks can be found without decompressing anything. Consecutive
+// blocks are grouped into tasks of about a chunk; each worker decompresses a task
+// into its own reusable off-heap buffer and processes it in place.
+//
+// A task's lines up to its first newline and after its last one continue in the
+// neighboring tasks. The workers keep those pieces, and stitchedLines() puts them
+// back together into whole lines once all the tasks are done.
+//
+// The blocks of linked LZ4 frames refer to the output of the blocks before them, so
+// they can only be decompressed in order, by sequentialStream(). The checksum of a
+// whole LZ4 frame's content is computed over all of it in order, so it's skipped;
+// the header and block checksums are checked.
+class CompressedBlockQueue {
+    private static final int GZIP_HEADER_SIZE = 10;
+    private static final int GZIP_TRAILER_SIZE = 8;
+    private static final int FEXTRA = 4;
+    private static final int MAX_BGZF_BLOCK_SIZE = 64 * 1024;
+
+    private static final int LZ4_MAGIC = 0x184D2204;
+    private static final int ZSTD_MAGIC = 0xFD2FB528;
+    // 0x184D2A50..0x184D2A5F
+    private static final int SKIPPABLE_MAGIC = 0x184D2A50;
+    private static final int LZ4_VERSION = 0x40;
+    private static final int LZ4_BLOCK_INDEPENDENCE = 0x20;
+    private static final int LZ4_BLOCK_CHECKSUM = 0x10;
+    private static final int LZ4_CONTENT_SIZE = 0x08;
+    private static final int LZ4_CONTENT_CHECKSUM = 0x04;
+    private static final int LZ4_DICT_ID = 0x01;
+    // A match refers to at most this many bytes back
+    private static final int LZ4_WINDOW = 64 * 1024;
+    private static final int LZ4_MIN_MATCH = 4;
+
+    // The kinds of block
+    private static final byte BGZF = 0;
+    private static final byte LZ4_COMPRESSED = 1;
+    private static final byte LZ4_STORED = 2;
+
+    // gzip's and LZ4's fields are little-endian
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfShort SHORT = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private final MemorySegment input;
+    private final String format;
+    // The compressed data of each block and its uncompressed size, exact for BGZF
+    // and stored LZ4 blocks and an upper bound for compressed LZ4 blocks
+    private final long[] dataOffsets;
+    private final int[] dataSizes;
+    private final int[] maxSizes;
+    private final byte[] kinds;
+    private final boolean[] checksums;
+    private final boolean independent;
+    // Task i covers the blocks from taskBlocks[i] to taskBlocks[i + 1]
+    private final int[] taskBlocks;
+    private final long maxTaskSize;
+    private final AtomicInteger nextTask = new AtomicInteger();
+    // The bytes before the first and after the last newline of each task, or the
+    // whole task in heads if it has no newline
+    private final byte[][] heads;
+    private final byte[][] tails;
+    private volatile ZipException error;
+
+    // Returns the compression of the input, from its magic number
+    static Aggregator.Compression detect(MemorySegment input) {
+        long size = input.byteSize();
+        if (size >= 4) {
+            int magic = input.get(INT, 0);
+            if (magic == ZSTD_MAGIC) {
+                return Aggregator.Compression.ZSTD;
+            }
+            if (magic == LZ4_MAGIC || (magic & 0xFFFFFFF0) == SKIPPABLE_MAGIC) {
+                return Aggregator.Compression.LZ4;
+            }
+        }
+        if (size >= 2 && (input.get(SHORT, 0) & 0xFFFF) == 0x8B1F) {
+            return bgzfBlockSize(input, 0) > 0 ? Aggregator.Compression.BGZF : Aggregator.Compression.GZIP;
+        }
+        return Aggregator.Compression.NONE;
+    }
+
+    // Returns the size of the BGZF block at the offset, from the BSIZE field of its
+    // header, or 0 if it's not a BGZF block. Reads through the segment, so it works
+    // on a heap segment with just the start of a file too.
+    private static int bgzfBlockSize(MemorySegment input, long offset) {
+        long remaining = input.byteSize() - offset;
+        if (remaining < GZIP_HEADER_SIZE + 2
+                || (input.get(SHORT, offset) & 0xFFFF) != 0x8B1F
+                || input.get(ValueLayout.JAVA_BYTE, offset + 2) != 8
+                || (input.get(ValueLayout.JAVA_BYTE, offset + 3) & FEXTRA) == 0) {
+            return 0;
+        }
+        int extraLen = input.get(SHORT, offset + GZIP_HEADER_SIZE) & 0xFFFF;
+        long extraEnd = GZIP_HEADER_SIZE + 2 + extraLen;
+        if (remaining < extraEnd) {
+            return 0;
+        }
+        // The extra field is a list of subfields: two ID bytes, a 2-byte length, data
+        for (long field = GZIP_HEADER_SIZE + 2; field + 4 <= extraEnd; ) {
+            int fieldLen = input.get(SHORT, offset + field + 2) & 0xFFFF;
+            if (input.get(ValueLayout.JAVA_BYTE, offset + field) == 'B'
+                    && input.get(ValueLayout.JAVA_BYTE, offset + field + 1) == 'C'
+                    && fieldLen == 2 && field + 6 <= extraEnd) {
+                return (input.get(SHORT, offset + field + 4) & 0xFFFF) + 1;
+            }
+            field += 4 + fieldLen;
+        }
+        return 0;
+    }
+
+    // The blocks of the input, in order
+    private static class BlockList {
+        final ArrayList<long[]> blocks = new ArrayList<>();
+        boolean independent = true;
+
+        void add(long dataOffset, long dataSize, long maxSize, int kind, boolean checksum) {
+            blocks.add(new long[] { dataOffset, dataSize, maxSize, kind, checksum ? 1 : 0 });
+        }
+    }
+
+    CompressedBlockQueue(MemorySegment input, Aggregator.Compression compression, int taskSize)
+            throws IOException {
+        this.input = input;
+        var blockList = new BlockList();
+        switch (compression) {
+            case BGZF -> parseBgzf(input, blockList);
+            case LZ4 -> parseLz4(input, blockList);
+            default -> throw new IllegalArgumentException("Can't split " + compression + " input into blocks");
+        }
+        format = compression.name();
+        independent = blockList.independent;
+        var blocks = blockList.blocks;
+        dataOffsets = new long[blocks.size()];
+        dataSizes = new int[blocks.size()];
+        maxSizes = new int[blocks.size()];
+        kinds = new byte[blocks.size()];
+        checksums = new boolean[blocks.size()];
+        var taskList = new ArrayList<Integer>();
+        long taskUncompressed = 0;
+        long maxTaskSize = 0;
+        for (int i = 0; i < blocks.size(); i++) {
+            dataOffsets[i] = blocks.get(i)[0];
+            dataSizes[i] = (int) blocks.get(i)[1];
+            maxSizes[i] = (int) blocks.get(i)[2];
+            kinds[i] = (byte) blocks.get(i)[3];
+            checksums[i] = blocks.get(i)[4] != 0;
+            if (i == 0 || taskUncompressed >= taskSize) {
+                taskList.add(i);
+                taskUncompressed = 0;
+            }
+            taskUncompressed += maxSizes[i];
+            maxTaskSize = Math.max(maxTaskSize, taskUncompressed);
+        }
+        taskList.add(blocks.size());
+        taskBlocks = taskList.stream().mapToInt(Integer::intValue).toArray();
+        this.maxTaskSize = maxTaskSize;
+        heads = new byte[taskBlocks.length - 1][];
+        tails = new byte[taskBlocks.length - 1][];
+    }
+
+    private static void parseBgzf(MemorySegment input, BlockList blocks) throws ZipException {
+        long offset = 0;
+        while (offset < input.byteSize()) {
+            int blockSize = bgzfBlockSize(input, offset);
+            if (blockSize == 0) {
+                throw new ZipException(String.format("Not a BGZF block at offset %,d", offset));
+            }
+            if (offset + blockSize > input.byteSize()) {
+                throw new ZipException(String.format("Truncated BGZF block at offset %,d", offset));
+            }
+            int extraLen = input.get(SHORT, offset + GZIP_HEADER_SIZE) & 0xFFFF;
+            long dataOffset = offset + GZIP_HEADER_SIZE + 2 + extraLen;
+            int uncompressedSize = input.get(INT, offset + blockSize - 4);
+            if (dataOffset > offset + blockSize - GZIP_TRAILER_SIZE || uncompressedSize < 0
+                    || uncompressedSize > MAX_BGZF_BLOCK_SIZE) {
+                throw new ZipException(String.format("Corrupt BGZF block at offset %,d", offset));
+            }
+            blocks.add(dataOffset, offset + blockSize - GZIP_TRAILER_SIZE - dataOffset, uncompressedSize, BGZF, true);
+            offset += blockSize;
+        }
+    }
+
+    private static void parseLz4(MemorySegment input, BlockList blocks) throws ZipException {
+        long size = input.byteSize();
+        long offset = 0;
+        while (offset < size) {
+            if (size - offset < 8) {
+                throw new ZipException(String.format("Truncated LZ4 frame at offset %,d", offset));
+            }
+            int magic = input.get(INT, offset);
+            if ((magic & 0xFFFFFFF0) == SKIPPABLE_MAGIC) {
+                offset += 8 + (input.get(INT, offset + 4) & 0xFFFFFFFFL);
+                continue;
+            }
+            if (magic != LZ4_MAGIC) {
+                throw new ZipException(String.format("Not an LZ4 frame at offset %,d", offset));
+            }
+            int flags = input.get(ValueLayout.JAVA_BYTE, offset + 4) & 0xFF;
+            int blockDescriptor = input.get(ValueLayout.JAVA_BYTE, offset + 5) & 0xFF;
+            int maxBlockSizeId = (blockDescriptor >> 4) & 7;
+            if ((flags & 0xC2) != LZ4_VERSION || (blockDescriptor & 0x8F) != 0 || maxBlockSizeId < 4) {
+                throw new ZipException(String.format("Unsupported LZ4 frame descriptor at offset %,d", offset));
+            }
+            if ((flags & LZ4_DICT_ID) != 0) {
+                throw new ZipException(String.format("LZ4 frame at offset %,d needs a dictionary", offset));
+            }
+            // 64 KB, 256 KB, 1 MB or 4 MB
+            int maxBlockSize = 1 << (2 * maxBlockSizeId + 8);
+            long descriptorEnd = offset + 6 + ((flags & LZ4_CONTENT_SIZE) != 0 ? 8 : 0);
+            if (descriptorEnd >= size) {
+                throw new ZipException(String.format("Truncated LZ4 frame at offset %,d", offset));
+            }
+            int headerChecksum = (xxHash32(input.address() + offset + 4, descriptorEnd - offset - 4) >>> 8) & 0xFF;
+            if (headerChecksum != (input.get(ValueLayout.JAVA_BYTE, descriptorEnd) & 0xFF)) {
+                throw new ZipException(String.format("Corrupt LZ4 frame descriptor at offset %,d", offset));
+            }
+            blocks.independent &= (flags & LZ4_BLOCK_INDEPENDENCE) != 0;
+            boolean blockChecksum = (flags & LZ4_BLOCK_CHECKSUM) != 0;
+            offset = descriptorEnd + 1;
+            while (true) {
+                if (size - offset < 4) {
+                    throw new ZipException(String.format("Truncated LZ4 block at offset %,d", offset));
+                }
+                int blockSize = input.get(INT, offset);
+                if (blockSize == 0) {
+                    offset += 4;
+                    break;
+                }
+                boolean stored = blockSize < 0;
+                int dataSize = blockSize & 0x7FFFFFFF;
+                long blockEnd = offset + 4 + dataSize + (blockChecksum ? 4 : 0);
+                if (dataSize > maxBlockSize || blockEnd > size) {
+                    throw new ZipException(String.format("Corrupt LZ4 block at offset %,d", offset));
+                }
+                blocks.add(offset + 4, dataSize, stored ? dataSize : maxBlockSize,
+                        stored ? LZ4_STORED : LZ4_COMPRESSED, blockChecksum);
+                offset = blockEnd;
+            }
+            offset += (flags & LZ4_CONTENT_CHECKSUM) != 0 ? 4 : 0;
+        }
+        if (offset > size) {
+            throw new ZipException("Truncated LZ4 frame at the end of the input");
+        }
+    }
+
+    // Returns whether the blocks can be decompressed independently. Otherwise only
+    // sequentialStream() works.
+    boolean independent() {
+        return independent;
+    }
+
+    String format() {
+        return format;
+    }
+
+    long compressedSize() {
+        return input.byteSize();
+    }
+
+    void processAll(Aggregator.ChunkHandler processor, WorkerStats stats) {
+        long buffer = Aggregator.UNSAFE.allocateMemory(maxTaskSize + 1 + Aggregator.TAIL_PADDING);
+        var inflater = new Inflater(true);
+        var crc = new CRC32();
+        try {
+            while (error == null) {
+                int task = nextTask.getAndIncrement();
+                if (task >= heads.length) {
+                    break;
+                }
+                long start = System.nanoTime();
+                long position = buffer;
+                for (int block = taskBlocks[task]; block < taskBlocks[task + 1]; block++) {
+                    // Independent blocks have no history before their own output
+                    position = decompress(block, position, position, inflater, crc);
+                }
+                long size = position - buffer;
+                processTask(task, buffer, size, processor);
+                stats.chunkDone(size, start, System.nanoTime());
+            }
+        }
+        catch (ZipException e) {
+            error = e;
+        }
+        finally {
+            inflater.end();
+            Aggregator.UNSAFE.freeMemory(buffer);
+        }
+    }
+
+    // Decompresses the block to the output address and returns the end of its output.
+    // LZ4 matches may refer back to historyStart.
+    private long decompress(int block, long output, long historyStart, Inflater inflater, CRC32 crc)
+            throws ZipException {
+        long data = input.address() + dataOffsets[block];
+        if (kinds[block] == BGZF) {
+            return output + inflate(block, output, inflater, crc);
+        }
+        if (checksums[block] && xxHash32(data, dataSizes[block]) != input.get(INT, dataOffsets[block] + dataSizes[block])) {
+            throw new ZipException(String.format("LZ4 block checksum mismatch at offset %,d", dataOffsets[block]));
+        }
+        if (kinds[block] == LZ4_STORED) {
+            Aggregator.UNSAFE.copyMemory(data, output, dataSizes[block]);
+            return output + dataSizes[block];
+        }
+        long end = decodeLz4Block(data, data + dataSizes[block], output, historyStart, output + maxSizes[block]);
+        if (end < 0) {
+            throw new ZipException(String.format("Corrupt LZ4 block at offset %,d", dataOffsets[block]));
+        }
+        return end;
+    }
+
+    private int inflate(int block, long output, Inflater inflater, CRC32 crc) throws ZipException {
+        var outputBuffer = MemorySegment.ofAddress(output).reinterpret(maxSizes[block]).asByteBuffer();
+        inflater.reset();
+        // Inflater can't take buffers of a closeable shared arena, so this one isn't
+        // tied to the arena of the input
+        inflater.setInput(MemorySegment.ofAddress(input.address() + dataOffsets[block])
+                .reinterpret(dataSizes[block]).asByteBuffer());
+        try {
+            while (!inflater.finished()) {
+                if (inflater.inflate(outputBuffer) == 0 && !inflater.finished()) {
+                    break;
+                }
+            }
+        }
+        catch (DataFormatException e) {
+            throw new ZipException(String.format("Corrupt BGZF block at offset %,d: %s",
+                    dataOffsets[block], e.getMessage()));
+        }
+        crc.reset();
+        crc.update(outputBuffer.flip());
+        if (!inflater.finished() || outputBuffer.limit() != maxSizes[block]
+                || (int) crc.getValue() != input.get(INT, dataOffsets[block] + dataSizes[block])) {
+            throw new ZipException(String.format("Corrupt BGZF block at offset %,d", dataOffsets[block]));
+        }
+        return maxSizes[block];
+    }
+
+    // Decodes an LZ4 block: a series of sequences, each a token byte with the literal
+    // length in its high and the match length in its low nibble, length extension
+    // bytes, the literals, and the 2-byte offset of the match. The last sequence has
+    // literals only. Returns the end of the output, or -1 if the block is corrupt:
+    // every length and offset is checked against the input, the output limit and the
+    // history.
+    private static long decodeLz4Block(long source, long sourceEnd, long output, long historyStart, long outputLimit) {
+        while (source < sourceEnd) {
+            int token = Aggregator.getByte(source++) & 0xFF;
+            long literalLen = token >>> 4;
+            if (literalLen == 15) {
+                int extension;
+                do {
+                    if (source >= sourceEnd) {
+                        return -1;
+                    }
+                    extension = Aggregator.getByte(source++) & 0xFF;
+                    literalLen += extension;
+                } while (extension == 255);
+            }
+            if (literalLen > sourceEnd - source || literalLen > outputLimit - output) {
+                return -1;
+            }
+            Aggregator.UNSAFE.copyMemory(source, output, literalLen);
+            source += literalLen;
+            output += literalLen;
+            if (source == sourceEnd) {
+                return output;
+            }
+            if (sourceEnd - source < 2) {
+                return -1;
+            }
+            int matchOffset = Aggregator.UNSAFE.getShort(source) & 0xFFFF;
+            source += 2;
+            long matchLen = (token & 0xF) + LZ4_MIN_MATCH;
+            if (matchLen == 15 + LZ4_MIN_MATCH) {
+                int extension;
+                do {
+                    if (source >= sourceEnd) {
+                        return -1;
+                    }
+                    extension = Aggregator.getByte(source++) & 0xFF;
+                    matchLen += extension;
+                } while (extension == 255);
+            }
+            if (matchOffset == 0 || matchOffset > output - historyStart || matchLen > outputLimit - output) {
+                return -1;
+            }
+            long match = output - matchOffset;
+            if (matchOffset >= Long.BYTES) {
+                // Word copies can overrun the match end by up to 7 bytes, which the
+                // next sequence or the tail padding of the buffer absorbs
+                for (long i = 0; i < matchLen; i += Long.BYTES) {
+                    Aggregator.UNSAFE.putLong(output + i, Aggregator.getLong(match + i));
+                }
+            } else {
+                // Overlapping: the match repeats the last matchOffset bytes
+                for (long i = 0; i < matchLen; i++) {
+                    Aggregator.UNSAFE.putByte(output + i, Aggregator.getByte(match + i));
+                }
+            }
+            output += matchLen;
+        }
+        // A block can't end with a match
+        return -1;
+    }
+
+    private static final int PRIME32_1 = 0x9E3779B1;
+    private static final int PRIME32_2 = 0x85EBCA77;
+    private static final int PRIME32_3 = 0xC2B2AE3D;
+    private static final int PRIME32_4 = 0x27D4EB2F;
+    private static final int PRIME32_5 = 0x165667B1;
+
+    // XXH32 with seed 0, the checksum of the LZ4 frame format
+    static int xxHash32(long address, long size) {
+        long end = address + size;
+        long p = address;
+        int hash;
+        if (size >= 16) {
+            int v1 = PRIME32_1 + PRIME32_2;
+            int v2 = PRIME32_2;
+            int v3 = 0;
+            int v4 = -PRIME32_1;
+            for (; p <= end - 16; p += 16) {
+                v1 = Integer.rotateLeft(v1 + Aggregator.UNSAFE.getInt(p) * PRIME32_2, 13) * PRIME32_1;
+                v2 = Integer.rotateLeft(v2 + Aggregator.UNSAFE.getInt(p + 4) * PRIME32_2, 13) * PRIME32_1;
+                v3 = Integer.rotateLeft(v3 + Aggregator.UNSAFE.getInt(p + 8) * PRIME32_2, 13) * PRIME32_1;
+                v4 = Integer.rotateLeft(v4 + Aggregator.UNSAFE.getInt(p + 12) * PRIME32_2, 13) * PRIME32_1;
+            }
+            hash = Integer.rotateLeft(v1, 1) + Integer.rotateLeft(v2, 7) + Integer.rotateLeft(v3, 12)
+                    + Integer.rotateLeft(v4, 18);
+        } else {
+            hash = PRIME32_5;
+        }
+        hash += (int) size;
+        for (; p <= end - 4; p += 4) {
+            hash = Integer.rotateLeft(hash + Aggregator.UNSAFE.getInt(p) * PRIME32_3, 17) * PRIME32_4;
+        }
+        for (; p < end; p++) {
+            hash = Integer.rotateLeft(hash + (Aggregator.getByte(p) & 0xFF) * PRIME32_5, 11) * PRIME32_1;
+        }
+        hash ^= hash >>> 15;
+        hash *= PRIME32_2;
+        hash ^= hash >>> 13;
+        hash *= PRIME32_3;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    private void processTask(int task, long buffer, long size, Aggregator.ChunkHandler processor) {
+        long firstLineEnd = 0;
+        while (firstLineEnd < size && Aggregator.getByte(buffer + firstLineEnd) != '\n') {
+            firstLineEnd++;
+        }
+        if (firstLineEnd == size) {
+            heads[task] = copy(buffer, size);
+            return;
+        }
+        // The first task starts with a whole line
+        long linesStart = task == 0 ? 0 : firstLineEnd + 1;
+        long linesEnd = size;
+        while (Aggregator.getByte(buffer + linesEnd - 1) != '\n') {
+            linesEnd--;
+        }
+        heads[task] = copy(buffer, linesStart);
+        tails[task] = copy(buffer + linesEnd, size - linesEnd);
+        processor.processChunk(buffer + linesStart, buffer + linesEnd);
+    }
+
+    private static byte[] copy(long address, long size) {
+        var bytes = new byte[(int) size];
+        MemorySegment.copy(MemorySegment.ofAddress(address).reinterpret(size), ValueLayout.JAVA_BYTE, 0, bytes, 0, (int) size);
+        return bytes;
+    }
+
+    // Returns the lines that cross task boundaries, after all the tasks are done. The
+    // last line may lack its newline.
+    byte[] stitchedLines() throws ZipException {
+        if (error != null) {
+            throw error;
+        }
+        var lines = new ByteArrayOutputStream();
+        var pending = new ByteArrayOutputStream();
+        for (int task = 0; task < heads.length; task++) {
+            pending.writeBytes(heads[task]);
+            if (tails[task] != null) {
+                if (task > 0) {
+                    lines.writeBytes(pending.toByteArray());
+                }
+                pending.reset();
+                pending.writeBytes(tails[task]);
+            }
+        }
+        lines.writeBytes(pending.toByteArray());
+        return lines.toByteArray();
+    }
+
+    // Decompresses the blocks one after the other on the calling thread, keeping the
+    // last LZ4_WINDOW bytes of output for the matches of the next block
+    InputStream sequentialStream() {
+        return new InputStream() {
+            private final long window = Aggregator.UNSAFE.allocateMemory(
+                    LZ4_WINDOW + maxBlockSize() + Long.BYTES + Aggregator.TAIL_PADDING);
+            private final Inflater inflater = new Inflater(true);
+            private final CRC32 crc = new CRC32();
+            private int block = 0;
+            private long position = window;
+            private long end = window;
+            private boolean closed = false;
+
+            @Override
+            public int read() throws IOException {
+                var one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                while (position == end) {
+                    if (block == dataOffsets.length) {
+                        return -1;
+                    }
+                    if (end - window > LZ4_WINDOW) {
+                        Aggregator.UNSAFE.copyMemory(end - LZ4_WINDOW, window, LZ4_WINDOW);
+                        end = window + LZ4_WINDOW;
+                    }
+                    position = end;
+                    end = decompress(block++, end, window, inflater, crc);
+                }
+                int count = (int) Math.min(length, end - position);
+                MemorySegment.copy(MemorySegment.ofAddress(position).reinterpret(count), ValueLayout.JAVA_BYTE, 0,
+                        bytes, offset, count);
+                position += count;
+                return count;
+            }
+
+            @Override
+            public void close() {
+                if (!closed) {
+                    closed = true;
+                    inflater.end();
+                    Aggregator.UNSAFE.freeMemory(window);
+                }
+            }
+        };
+    }
+
+    private int maxBlockSize() {
+        int max = 0;
+        for (int size : maxSizes) {
+            max = Math.max(max, size);
+        }
+        return max;
+    }
+}
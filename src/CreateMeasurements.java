@@ -0,0 +1,282 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Generates measurements.txt-style files. The output depends only on the settings
+// and the seed, not on the number of threads:
+//
+//     java CreateMeasurements --rows 1000000000 --stations 10000 --name-lengths 10k
+//
+// Options (defaults in parentheses):
+//     --rows N               number of lines (1,000,000,000)
+//     --stations N           number of distinct station names (10,000)
+//     --name-lengths SPEC    distribution of name lengths in bytes, either "official",
+//                            "10k", or a list of weighted ranges like "1-8:60,9-16:35,17-100:5"
+//                            ("official")
+//     --non-ascii P          probability that a name character is a multi-byte UTF-8
+//                            character (0.05)
+//     --temps gaussian|uniform
+//                            gaussian around a random per-station mean, or uniform over
+//                            -99.9..99.9 (gaussian)
+//     --stddev D             standard deviation of the gaussian distribution (10.0)
+//     --seed N               (1)
+//     --threads N            (all available processors)
+//     --out FILE             (measurements.txt)
+public class CreateMeasurements {
+    // The official dataset mostly has names of 1..16 bytes, see Statistics.distribution()
+    static final String OFFICIAL_NAME_LENGTHS = "1-3:2,4-7:40,8-11:42,12-15:11,16-19:4,20-27:1";
+    // The 10k dataset has name lengths spread evenly up to 100 bytes
+    static final String TEN_K_NAME_LENGTHS = "1-100:1";
+
+    private static final int ROWS_PER_BLOCK = 256 * 1024;
+    private static final int MAX_NAME_LEN = 100;
+    private static final String ASCII_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ -'.";
+    private static final String NON_ASCII_CHARS = "éèüöäåøßçñłşăţžčřőűíóúâêîôûàìòùëïÿœæðþ東京北南市川山都大阪";
+
+    private long seed = 1;
+    private int stationCount = 10_000;
+    private String nameLengths = OFFICIAL_NAME_LENGTHS;
+    private double nonAsciiProbability = 0.05;
+    private boolean gaussianTemps = true;
+    private double stddev = 10.0;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+
+    public static void main(String[] args) throws Exception {
+        var generator = new CreateMeasurements();
+        long rowCount = 1_000_000_000L;
+        var out = Path.of("measurements.txt");
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            var value = args[i + 1];
+            switch (args[i]) {
+                case "--rows" -> rowCount = Long.parseLong(value);
+                case "--stations" -> generator.stationCount(Integer.parseInt(value));
+                case "--name-lengths" -> generator.nameLengths(value);
+                case "--non-ascii" -> generator.nonAsciiProbability(Double.parseDouble(value));
+                case "--temps" -> generator.gaussianTemps(switch (value) {
+                    case "gaussian" -> true;
+                    case "uniform" -> false;
+                    default -> throw new IllegalArgumentException("Unknown temperature distribution " + value);
+                });
+                case "--stddev" -> generator.stddev(Double.parseDouble(value));
+                case "--seed" -> generator.seed(Long.parseLong(value));
+                case "--threads" -> generator.threadCount(Integer.parseInt(value));
+                case "--out" -> out = Path.of(value);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        var start = System.currentTimeMillis();
+        generator.write(out, rowCount);
+        System.err.format("Wrote %,d rows in %,d ms\n", rowCount, System.currentTimeMillis() - start);
+    }
+
+    public CreateMeasurements seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public CreateMeasurements stationCount(int stationCount) {
+        if (stationCount < 1) {
+            throw new IllegalArgumentException("stationCount must be positive, got " + stationCount);
+        }
+        this.stationCount = stationCount;
+        return this;
+    }
+
+    public CreateMeasurements nameLengths(String spec) {
+        this.nameLengths = switch (spec) {
+            case "official" -> OFFICIAL_NAME_LENGTHS;
+            case "10k" -> TEN_K_NAME_LENGTHS;
+            default -> spec;
+        };
+        parseNameLengths(this.nameLengths);
+        return this;
+    }
+
+    public CreateMeasurements nonAsciiProbability(double nonAsciiProbability) {
+        this.nonAsciiProbability = nonAsciiProbability;
+        return this;
+    }
+
+    public CreateMeasurements gaussianTemps(boolean gaussianTemps) {
+        this.gaussianTemps = gaussianTemps;
+        return this;
+    }
+
+    public CreateMeasurements stddev(double stddev) {
+        this.stddev = stddev;
+        return this;
+    }
+
+    public CreateMeasurements threadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be positive, got " + threadCount);
+        }
+        this.threadCount = threadCount;
+        return this;
+    }
+
+    public void write(Path path, long rowCount) throws IOException {
+        try (var out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 20)) {
+            write(out, rowCount);
+        }
+    }
+
+    // Generates blocks of rows in parallel and writes them in order. Each block has
+    // its own random generator, seeded from the main seed and the block index.
+    public void write(OutputStream out, long rowCount) throws IOException {
+        var stations = createStations();
+        long blockCount = (rowCount + ROWS_PER_BLOCK - 1) / ROWS_PER_BLOCK;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            var pending = new ArrayDeque<Future<byte[]>>();
+            long nextBlock = 0;
+            while (nextBlock < blockCount || !pending.isEmpty()) {
+                while (nextBlock < blockCount && pending.size() < 2 * threadCount) {
+                    final long blockIndex = nextBlock++;
+                    final int blockRows = (int) Math.min(ROWS_PER_BLOCK, rowCount - blockIndex * ROWS_PER_BLOCK);
+                    pending.add(executor.submit(() -> generateBlock(stations, blockIndex, blockRows)));
+                }
+                out.write(pending.remove().get());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class Station {
+        final byte[] name;
+        final int meanTemp;
+
+        Station(byte[] name, int meanTemp) {
+            this.name = name;
+            this.meanTemp = meanTemp;
+        }
+    }
+
+    private Station[] createStations() {
+        var random = new Random(seed);
+        var lengthRanges = parseNameLengths(nameLengths);
+        var uniqueNames = new HashSet<String>();
+        var stations = new ArrayList<Station>();
+        int attempts = 0;
+        while (stations.size() < stationCount) {
+            if (++attempts > 100 * stationCount) {
+                throw new IllegalArgumentException(String.format(
+                        "Can't create %,d distinct names with name lengths %s", stationCount, nameLengths));
+            }
+            var name = randomName(random, pickLength(random, lengthRanges));
+            if (uniqueNames.add(name)) {
+                stations.add(new Station(name.getBytes(StandardCharsets.UTF_8), random.nextInt(-200, 300)));
+            }
+        }
+        return stations.toArray(Station[]::new);
+    }
+
+    // Each range is {minLen, maxLen, cumulativeWeight}
+    private static int[][] parseNameLengths(String spec) {
+        var ranges = new ArrayList<int[]>();
+        int totalWeight = 0;
+        for (var entry : spec.split(",")) {
+            var parts = entry.trim().split("[-:]");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Bad name length range '" + entry + "', expected min-max:weight");
+            }
+            int min = Integer.parseInt(parts[0]);
+            int max = Integer.parseInt(parts[1]);
+            int weight = Integer.parseInt(parts[2]);
+            if (min < 1 || max > MAX_NAME_LEN || min > max || weight < 0) {
+                throw new IllegalArgumentException("Bad name length range '" + entry + "'");
+            }
+            totalWeight += weight;
+            ranges.add(new int[] { min, max, totalWeight });
+        }
+        if (totalWeight == 0) {
+            throw new IllegalArgumentException("Name length weights must not all be zero: " + spec);
+        }
+        return ranges.toArray(int[][]::new);
+    }
+
+    private static int pickLength(Random random, int[][] ranges) {
+        int totalWeight = ranges[ranges.length - 1][2];
+        int pick = random.nextInt(totalWeight);
+        for (var range : ranges) {
+            if (pick < range[2]) {
+                return random.nextInt(range[0], range[1] + 1);
+            }
+        }
+        throw new AssertionError();
+    }
+
+    // Returns a name whose UTF-8 encoding is exactly byteLen bytes long
+    private String randomName(Random random, int byteLen) {
+        var name = new StringBuilder();
+        int remaining = byteLen;
+        while (remaining > 0) {
+            char c = random.nextDouble() < nonAsciiProbability
+                    ? NON_ASCII_CHARS.charAt(random.nextInt(NON_ASCII_CHARS.length()))
+                    : ASCII_CHARS.charAt(random.nextInt(ASCII_CHARS.length()));
+            int charLen = String.valueOf(c).getBytes(StandardCharsets.UTF_8).length;
+            if (charLen > remaining) {
+                c = ASCII_CHARS.charAt(random.nextInt(ASCII_CHARS.length()));
+                charLen = 1;
+            }
+            name.append(c);
+            remaining -= charLen;
+        }
+        return name.toString();
+    }
+
+    private byte[] generateBlock(Station[] stations, long blockIndex, int rowCount) {
+        var random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + blockIndex);
+        int maxNameLen = Arrays.stream(stations).mapToInt(station -> station.name.length).max().orElse(0);
+        // name, semicolon, -XX.X, newline
+        var buf = new byte[rowCount * (maxNameLen + 7)];
+        int pos = 0;
+        for (int row = 0; row < rowCount; row++) {
+            var station = stations[random.nextInt(stations.length)];
+            System.arraycopy(station.name, 0, buf, pos, station.name.length);
+            pos += station.name.length;
+            buf[pos++] = ';';
+            int temp = gaussianTemps
+                    ? (int) Math.round(station.meanTemp + 10 * stddev * random.nextGaussian())
+                    : random.nextInt(-999, 1000);
+            temp = Math.max(-999, Math.min(999, temp));
+            if (temp < 0) {
+                buf[pos++] = '-';
+                temp = -temp;
+            }
+            if (temp >= 100) {
+                buf[pos++] = (byte) ('0' + temp / 100);
+            }
+            buf[pos++] = (byte) ('0' + temp / 10 % 10);
+            buf[pos++] = '.';
+            buf[pos++] = (byte) ('0' + temp % 10);
+            buf[pos++] = '\n';
+        }
+        return Arrays.copyOf(buf, pos);
+    }
+}
@@ -0,0 +1,654 @@
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+// Aggregates delimited records with any number of columns: one column is the key,
+// and for each of the numeric value columns it computes min/mean/max per key.
+//
+//     java --enable-preview DelimitedAggregator telemetry.csv , 1 3:1 4:2 --header
+//
+// groups the lines of telemetry.csv by the second column and aggregates the fourth
+// column with one and the fifth with two fractional digits. Columns are counted from
+// 0. Fields can't be quoted and can't contain the delimiter. A value has an optional
+// '-', digits and optionally a '.' with at most its column's precision of fractional
+// digits, and must fit in an int when scaled to integer units.
+//
+// The hot loop is Blog6's, generalized to the schema: the fields are found with the
+// SWAR byte match of semicolonMatchBits(), broadcasting the delimiter, the key is
+// hashed and looked up like a station name, and a value of the form X.X, -X.X, XX.X
+// or -XX.X in a column with precision 1 goes through parseTemperature(). Other values
+// of up to 8 bytes are parsed with SWAR too, longer ones byte by byte. The stats go
+// into a StationTable keyed by the key and the value column.
+//
+// The key can be composite, made of several columns, like 2+1 for (region, station):
+//
+//     java --enable-preview DelimitedAggregator telemetry.csv , 2+1 3:1
+//
+// aggregateGroups() then returns the stats grouped by region, each with the totals
+// of the region and its stations below it, so one pass gives every level. A key of
+// adjacent columns in ascending order is hashed and compared in place in the input,
+// as the span from its first field to the end of its last one. The fields of other
+// keys are copied into a per-thread buffer first. Either way the key is stored in
+// the table like a single name, with the delimiter between the fields, and hashed
+// in full, because the first 8 bytes of a composite key are often the same.
+public class DelimitedAggregator {
+    private static final int SKIP = 0;
+    private static final int KEY = 1;
+    private static final int VALUE = 2;
+    private static final int KEY_PART = 3;
+
+    private final byte delimiter;
+    private final int[] keyColumns;
+    private final List<int[]> valueColumns = new ArrayList<>();
+    private boolean skipHeader = false;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = Aggregator.DEFAULT_CHUNK_SIZE;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("Usage: java DelimitedAggregator FILE DELIMITER KEY_COLUMN[+KEY_COLUMN...] "
+                    + "COLUMN:PRECISION... [--header]");
+            System.exit(1);
+        }
+        var start = System.currentTimeMillis();
+        var delimiter = args[1].equals("tab") ? '\t' : args[1].charAt(0);
+        var keyColumns = Arrays.stream(args[2].split("\\+")).mapToInt(Integer::parseInt).toArray();
+        var aggregator = new DelimitedAggregator(delimiter, keyColumns);
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("--header")) {
+                aggregator.skipHeader(true);
+                continue;
+            }
+            var columnAndPrecision = args[i].split(":");
+            aggregator.value(Integer.parseInt(columnAndPrecision[0]),
+                    columnAndPrecision.length > 1 ? Integer.parseInt(columnAndPrecision[1]) : 0);
+        }
+        if (keyColumns.length > 1) {
+            var output = new StringBuilder();
+            appendGroups(output, aggregator.aggregateGroups(Path.of(args[0])), "");
+            System.out.print(output);
+            System.err.format("Took %,d ms\n", System.currentTimeMillis() - start);
+            System.out.close();
+            return;
+        }
+        var results = aggregator.aggregate(Path.of(args[0]));
+        var output = new StringBuilder("{");
+        for (var entry : results.entrySet()) {
+            output.append(output.length() == 1 ? "" : ", ").append(entry.getKey()).append('=')
+                    .append(entry.getValue().length == 1 ? entry.getValue()[0] : Arrays.toString(entry.getValue()));
+        }
+        System.out.println(output.append('}'));
+        System.err.format("Took %,d ms\n", System.currentTimeMillis() - start);
+        System.out.close();
+    }
+
+    private static void appendGroups(StringBuilder output, TreeMap<String, KeyGroup> groups, String indent) {
+        for (var group : groups.values()) {
+            output.append(indent).append(group).append('\n');
+            appendGroups(output, group.children, indent + "  ");
+        }
+    }
+
+    // The key columns in the order of the grouping, the outermost first
+    public DelimitedAggregator(char delimiter, int... keyColumns) {
+        if (delimiter == 0 || delimiter == '\n' || delimiter > 127) {
+            throw new IllegalArgumentException("The delimiter must be an ASCII character other than NUL and "
+                    + "newline, got " + (int) delimiter);
+        }
+        if (keyColumns.length == 0) {
+            throw new IllegalArgumentException("No key columns");
+        }
+        for (int i = 0; i < keyColumns.length; i++) {
+            if (keyColumns[i] < 0) {
+                throw new IllegalArgumentException("Key columns must not be negative, got " + keyColumns[i]);
+            }
+            for (int j = 0; j < i; j++) {
+                if (keyColumns[j] == keyColumns[i]) {
+                    throw new IllegalArgumentException("Column " + keyColumns[i] + " is in the key twice");
+                }
+            }
+        }
+        this.delimiter = (byte) delimiter;
+        this.keyColumns = keyColumns.clone();
+    }
+
+    private boolean isKeyColumn(int column) {
+        for (int keyColumn : keyColumns) {
+            if (keyColumn == column) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Adds a numeric column to aggregate. The results have the value columns in the
+    // order they were added.
+    public DelimitedAggregator value(int column, int precision) {
+        if (column < 0 || isKeyColumn(column)) {
+            throw new IllegalArgumentException("Can't aggregate column " + column);
+        }
+        for (var valueColumn : valueColumns) {
+            if (valueColumn[0] == column) {
+                throw new IllegalArgumentException("Column " + column + " is already aggregated");
+            }
+        }
+        if (precision < 0 || precision > 8) {
+            throw new IllegalArgumentException("precision must be in 0..8, got " + precision);
+        }
+        valueColumns.add(new int[] { column, precision });
+        return this;
+    }
+
+    // Skips the first line of the input
+    public DelimitedAggregator skipHeader(boolean skipHeader) {
+        this.skipHeader = skipHeader;
+        return this;
+    }
+
+    public DelimitedAggregator threadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be positive, got " + threadCount);
+        }
+        this.threadCount = threadCount;
+        return this;
+    }
+
+    public DelimitedAggregator chunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive, got " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    // The stats of the keys that start with the same fields. Each group has the
+    // totals of all its children, down to the leaves, which are the full keys.
+    public static class KeyGroup {
+        final String name;
+        final StationStats[] stats;
+        final TreeMap<String, KeyGroup> children = new TreeMap<>();
+
+        KeyGroup(String name, int valueCount) {
+            this.name = name;
+            this.stats = new StationStats[valueCount];
+        }
+
+        public String name() {
+            return name;
+        }
+
+        // Indexed like the value columns
+        public StationStats[] stats() {
+            return stats;
+        }
+
+        // Empty for a full key
+        public TreeMap<String, KeyGroup> children() {
+            return children;
+        }
+
+        private void add(StationStats[] keyStats) {
+            for (int i = 0; i < stats.length; i++) {
+                var copy = new StationStats(name, keyStats[i].sum, keyStats[i].count, keyStats[i].min,
+                        keyStats[i].max);
+                copy.precision = keyStats[i].precision;
+                stats[i] = stats[i] == null ? copy : stats[i].merge(copy);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + (stats.length == 1 ? stats[0] : Arrays.toString(stats));
+        }
+    }
+
+    // Returns the stats grouped by the key columns, in the order of the constructor
+    public TreeMap<String, KeyGroup> aggregateGroups(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, READ);
+             var arena = Arena.ofShared()
+        ) {
+            return aggregateGroups(channel.map(MapMode.READ_ONLY, 0, channel.size(), arena));
+        }
+    }
+
+    public TreeMap<String, KeyGroup> aggregateGroups(MemorySegment input) {
+        var groups = new TreeMap<String, KeyGroup>();
+        // Fields can't contain the delimiter, so splitting the keys at it is exact
+        var fieldSeparator = Pattern.quote(String.valueOf((char) delimiter));
+        for (var entry : aggregate(input).entrySet()) {
+            var fields = entry.getKey().split(fieldSeparator, -1);
+            var level = groups;
+            for (var field : fields) {
+                var group = level.computeIfAbsent(field, name -> new KeyGroup(name, valueColumns.size()));
+                group.add(entry.getValue());
+                level = group.children;
+            }
+        }
+        return groups;
+    }
+
+    // Returns the stats of each value column by key. A composite key has its fields
+    // separated by the delimiter.
+    public TreeMap<String, StationStats[]> aggregate(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, READ);
+             var arena = Arena.ofShared()
+        ) {
+            return aggregate(channel.map(MapMode.READ_ONLY, 0, channel.size(), arena));
+        }
+    }
+
+    public TreeMap<String, StationStats[]> aggregate(MemorySegment input) {
+        if (valueColumns.isEmpty()) {
+            throw new IllegalStateException("No value columns to aggregate");
+        }
+        if (skipHeader) {
+            long headerEnd = 0;
+            while (headerEnd < input.byteSize() && Aggregator.getByte(input.address() + headerEnd) != '\n') {
+                headerEnd++;
+            }
+            input = input.asSlice(Math.min(headerEnd + 1, input.byteSize()));
+        }
+        var chunkQueue = new Aggregator.ChunkQueue(List.of(input), chunkSize);
+        var processors = new ArrayList<DelimitedChunkProcessor>();
+        var threads = new Thread[threadCount];
+        var errors = new RuntimeException[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int myIndex = i;
+            var processor = newChunkProcessor();
+            processors.add(processor);
+            threads[i] = new Thread(() -> {
+                try {
+                    chunkQueue.processAll(processor);
+                }
+                catch (RuntimeException e) {
+                    errors[myIndex] = e;
+                }
+            });
+            threads[i].start();
+        }
+        try {
+            for (var thread : threads) {
+                thread.join();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        var results = new TreeMap<String, StationStats[]>();
+        for (var processor : processors) {
+            processor.table.exportStats((valueIndex, stats) -> {
+                stats.precision = valueColumns.get((int) valueIndex)[1];
+                var columns = results.computeIfAbsent(stats.name, unused -> new StationStats[valueColumns.size()]);
+                columns[(int) valueIndex] = columns[(int) valueIndex] == null
+                        ? stats
+                        : columns[(int) valueIndex].merge(stats);
+            });
+            processor.free();
+        }
+        for (var error : errors) {
+            if (error != null) {
+                throw error;
+            }
+        }
+        return results;
+    }
+
+    private DelimitedChunkProcessor newChunkProcessor() {
+        int lastColumn = 0;
+        for (int keyColumn : keyColumns) {
+            lastColumn = Math.max(lastColumn, keyColumn);
+        }
+        for (var valueColumn : valueColumns) {
+            lastColumn = Math.max(lastColumn, valueColumn[0]);
+        }
+        var columnKinds = new int[lastColumn + 1];
+        // The index of the value, or of the key part, of each column
+        var columnIndexes = new int[lastColumn + 1];
+        var precisions = new int[valueColumns.size()];
+        boolean keyInPlace = true;
+        for (int i = 0; i < keyColumns.length; i++) {
+            columnKinds[keyColumns[i]] = keyColumns.length == 1 ? KEY : KEY_PART;
+            columnIndexes[keyColumns[i]] = i;
+            keyInPlace &= keyColumns[i] == keyColumns[0] + i;
+        }
+        for (int i = 0; i < valueColumns.size(); i++) {
+            columnKinds[valueColumns.get(i)[0]] = VALUE;
+            columnIndexes[valueColumns.get(i)[0]] = i;
+            precisions[i] = valueColumns.get(i)[1];
+        }
+        return new DelimitedChunkProcessor(delimiter, columnKinds, columnIndexes, precisions, keyColumns.length,
+                keyInPlace);
+    }
+
+    static class DelimitedChunkProcessor implements Aggregator.ChunkHandler {
+        private static final long BROADCAST_NEWLINE = 0x0A0A0A0A0A0A0A0AL;
+        private static final long BROADCAST_DOT = 0x2E2E2E2E2E2E2E2EL;
+        private static final long[] POWERS_OF_10 = { 1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000,
+                100_000_000 };
+
+        final StationTable table = new StationTable();
+        private final byte delimiter;
+        private final long broadcastDelimiter;
+        private final int[] columnKinds;
+        private final int[] columnIndexes;
+        private final int[] precisions;
+        // The values of the current line, by value index
+        private final long[] values;
+        // The fields of a composite key in the current line, by key part index
+        private final long[] keyPartStarts;
+        private final int[] keyPartLens;
+        private final boolean keyInPlace;
+        // Where the fields of a composite key that isn't in place are copied together
+        private long keyBuffer;
+        private int keyBufferSize;
+
+        // The key of the current line, in the form of the hot loop's name: the length
+        // includes the terminating delimiter, and the words are masked after it
+        private long keyStart;
+        private int keyLen;
+        private long keyWord0;
+        private long keyWord1;
+        private long lastKeyWord;
+        // Whether the last field scanned ended the line
+        private boolean lineEnded;
+
+        DelimitedChunkProcessor(
+                byte delimiter, int[] columnKinds, int[] columnIndexes, int[] precisions, int keyPartCount,
+                boolean keyInPlace
+        ) {
+            this.delimiter = delimiter;
+            this.broadcastDelimiter = 0x0101010101010101L * (delimiter & 0xFF);
+            this.columnKinds = columnKinds;
+            this.columnIndexes = columnIndexes;
+            this.precisions = precisions;
+            this.values = new long[precisions.length];
+            this.keyPartStarts = new long[keyPartCount];
+            this.keyPartLens = new int[keyPartCount];
+            this.keyInPlace = keyInPlace;
+        }
+
+        void free() {
+            table.free();
+            if (keyBuffer != 0) {
+                Aggregator.UNSAFE.freeMemory(keyBuffer);
+                keyBuffer = 0;
+            }
+        }
+
+        private static long matchBits(long word, long broadcastByte) {
+            long diff = word ^ broadcastByte;
+            return (diff - 0x0101010101010101L) & (~diff & 0x8080808080808080L);
+        }
+
+        // The bytes that end a field: the delimiter or a newline
+        private long fieldEndBits(long word) {
+            return matchBits(word, broadcastDelimiter) | matchBits(word, BROADCAST_NEWLINE);
+        }
+
+        @Override
+        public void processChunk(long chunkBase, long chunkLimit) {
+            long cursor = chunkBase;
+            int lastColumn = columnKinds.length - 1;
+            while (cursor < chunkLimit) {
+                for (int column = 0; column <= lastColumn; column++) {
+                    if (lineEnded && column > 0) {
+                        throw new IllegalArgumentException("Found a line with fewer than "
+                                + (lastColumn + 1) + " columns");
+                    }
+                    cursor = switch (columnKinds[column]) {
+                        case KEY -> scanKey(cursor);
+                        case VALUE -> parseValue(cursor, columnIndexes[column]);
+                        case KEY_PART -> scanKeyPart(cursor, columnIndexes[column]);
+                        default -> skipField(cursor);
+                    };
+                }
+                if (!lineEnded) {
+                    cursor = skipLine(cursor);
+                }
+                lineEnded = false;
+                addLine(keyPartStarts.length == 1 ? keyWord0 : composeKey());
+            }
+        }
+
+        private void addLine(long keyHash) {
+            boolean shortKey = keyLen <= 2 * Long.BYTES;
+            for (int i = 0; i < values.length; i++) {
+                long hash = Aggregator.hash(keyHash ^ (i * 0x9E3779B97F4A7C15L));
+                long acc = shortKey ? table.findAcc2(hash, keyWord0, keyWord1, i) : 0;
+                if (acc == 0) {
+                    acc = table.ensureAcc(hash, keyStart, keyLen, keyWord0, keyWord1, lastKeyWord, i);
+                }
+                StationTable.observe(acc, (int) values[i]);
+            }
+        }
+
+        // Blog6's name scan, with the delimiter or a newline in place of the semicolon
+        private long scanKey(long cursor) {
+            keyStart = cursor;
+            long keyWord0 = Aggregator.getLong(cursor);
+            long keyWord1 = Aggregator.getLong(cursor + Long.BYTES);
+            long matchBits0 = fieldEndBits(keyWord0);
+            long matchBits1 = fieldEndBits(keyWord1);
+            if ((matchBits0 | matchBits1) != 0) {
+                int keyLen0 = Aggregator.nameLen(matchBits0);
+                int keyLen1 = Aggregator.nameLen(matchBits1);
+                keyWord0 = Aggregator.maskWord(keyWord0, matchBits0);
+                long keyWord1Mask = (long) keyLen0 << 60 >> 63;
+                keyWord1 = Aggregator.maskWord(keyWord1, matchBits1) & keyWord1Mask;
+                keyLen1 &= (int) (keyWord1Mask & 0b111);
+                keyLen = keyLen0 + keyLen1 + 1;
+                lastKeyWord = (keyWord0 & ~keyWord1Mask) | keyWord1;
+            } else {
+                keyLen = 2 * Long.BYTES;
+                while (true) {
+                    long word = Aggregator.getLong(cursor + keyLen);
+                    long matchBits = fieldEndBits(word);
+                    if (matchBits != 0) {
+                        keyLen += Aggregator.nameLen(matchBits) + 1;
+                        lastKeyWord = Aggregator.maskWord(word, matchBits);
+                        break;
+                    }
+                    keyLen += Long.BYTES;
+                }
+            }
+            this.keyWord0 = keyWord0;
+            this.keyWord1 = keyWord1;
+            lineEnded = Aggregator.getByte(cursor + keyLen - 1) == '\n';
+            return cursor + keyLen;
+        }
+
+        private long scanKeyPart(long cursor, int keyPart) {
+            keyPartStarts[keyPart] = cursor;
+            long next = skipField(cursor);
+            keyPartLens[keyPart] = (int) (next - 1 - cursor);
+            return next;
+        }
+
+        // Sets the key to the fields of the composite key and returns its hash
+        private long composeKey() {
+            int lastPart = keyPartStarts.length - 1;
+            if (keyInPlace) {
+                setKey(keyPartStarts[0], (int) (keyPartStarts[lastPart] + keyPartLens[lastPart] + 1 - keyPartStarts[0]));
+            } else {
+                int len = 0;
+                for (int keyPartLen : keyPartLens) {
+                    len += keyPartLen + 1;
+                }
+                if (len > keyBufferSize) {
+                    keyBufferSize = Math.max(len, 2 * keyBufferSize);
+                    // Padded so the key's words can be read like those of the input
+                    keyBuffer = Aggregator.UNSAFE.reallocateMemory(keyBuffer, keyBufferSize + 2 * Long.BYTES);
+                }
+                long position = keyBuffer;
+                for (int i = 0; i <= lastPart; i++) {
+                    Aggregator.UNSAFE.copyMemory(keyPartStarts[i], position, keyPartLens[i]);
+                    position += keyPartLens[i];
+                    Aggregator.UNSAFE.putByte(position++, delimiter);
+                }
+                setKey(keyBuffer, len);
+            }
+            return Aggregator.hashName(Aggregator.HashStrategy.WYHASH, keyStart, keyLen, keyWord0, keyWord1,
+                    lastKeyWord);
+        }
+
+        // Sets the key's words from its bytes, the way the hot loop masks a name
+        private void setKey(long start, int len) {
+            keyStart = start;
+            keyLen = len;
+            keyWord0 = Aggregator.getLong(start);
+            keyWord1 = Aggregator.getLong(start + Long.BYTES);
+            if (len <= Long.BYTES) {
+                keyWord0 = maskBytes(keyWord0, len);
+                keyWord1 = 0;
+                lastKeyWord = keyWord0;
+            } else if (len <= 2 * Long.BYTES) {
+                keyWord1 = maskBytes(keyWord1, len - Long.BYTES);
+                lastKeyWord = keyWord1;
+            } else {
+                int lastWordPos = (len - 1) & -Long.BYTES;
+                lastKeyWord = maskBytes(Aggregator.getLong(start + lastWordPos), len - lastWordPos);
+            }
+        }
+
+        private static long maskBytes(long word, int byteCount) {
+            return word & (-1L >>> (Long.SIZE - (byteCount << 3)));
+        }
+
+        private long skipField(long cursor) {
+            while (true) {
+                long matchBits = fieldEndBits(Aggregator.getLong(cursor));
+                if (matchBits != 0) {
+                    cursor += Aggregator.nameLen(matchBits);
+                    lineEnded = Aggregator.getByte(cursor) == '\n';
+                    return cursor + 1;
+                }
+                cursor += Long.BYTES;
+            }
+        }
+
+        private static long skipLine(long cursor) {
+            while (true) {
+                long matchBits = matchBits(Aggregator.getLong(cursor), BROADCAST_NEWLINE);
+                if (matchBits != 0) {
+                    return cursor + Aggregator.nameLen(matchBits) + 1;
+                }
+                cursor += Long.BYTES;
+            }
+        }
+
+        private long parseValue(long cursor, int valueIndex) {
+            long word = Aggregator.getLong(cursor);
+            long matchBits = fieldEndBits(word);
+            int fieldLen = Aggregator.nameLen(matchBits);
+            if (fieldLen == 0 || matchBits == 0) {
+                return parseLongValue(cursor, valueIndex);
+            }
+            // Below fieldLen 8, the bytes from the field end on are masked out
+            long fieldMask = fieldLen == Long.BYTES ? -1L : (1L << (fieldLen << 3)) - 1;
+            int signLen = (word & 0xFF) == '-' ? 1 : 0;
+            long dotBits = matchBits(word, BROADCAST_DOT) & fieldMask;
+            int dot = dotBits == 0 ? fieldLen : Aggregator.nameLen(dotBits);
+            // Every byte but the sign and the dot must be a digit, and there must be a
+            // digit. Anything else, like a CR before the newline, takes the checking path.
+            long notDigits = nonDigitBits(word) & fieldMask & ~(0xFFL * signLen);
+            if (dotBits != 0) {
+                notDigits &= ~(0xFFL << (dot << 3));
+            }
+            if (notDigits != 0 || fieldLen - signLen - (dotBits != 0 ? 1 : 0) == 0) {
+                return parseLongValue(cursor, valueIndex);
+            }
+            int precision = precisions[valueIndex];
+            int dotPos = Aggregator.dotPos(word);
+            if (precision == 1 && fieldLen >= 3 && dotPos == ((fieldLen - 2) << 3) + 4
+                    && (fieldLen < 5 || signLen == 1)) {
+                values[valueIndex] = Aggregator.parseTemperature(word, dotPos);
+            } else {
+                int fractionLen = Math.max(0, fieldLen - dot - 1);
+                if (fractionLen > precision) {
+                    return parseLongValue(cursor, valueIndex);
+                }
+                long integerPart = WindowedAggregator.parseDigits(word >>> (signLen << 3), dot - signLen);
+                long fraction = WindowedAggregator.parseDigits(word >>> ((dot + 1) << 3), fractionLen);
+                long value = integerPart * POWERS_OF_10[precision] + fraction * POWERS_OF_10[precision - fractionLen];
+                if (value > Integer.MAX_VALUE) {
+                    return parseLongValue(cursor, valueIndex);
+                }
+                values[valueIndex] = signLen == 0 ? value : -value;
+            }
+            lineEnded = Aggregator.getByte(cursor + fieldLen) == '\n';
+            return cursor + fieldLen + 1;
+        }
+
+        // Returns a word with the high bit set in each byte that isn't an ASCII digit. A
+        // digit has the high nibble 3 and a low nibble that doesn't carry when 6 is added.
+        private static long nonDigitBits(long word) {
+            long highNibbles = (word & 0xF0F0F0F0F0F0F0F0L) ^ 0x3030303030303030L;
+            long lowNibbleCarries = ((word & 0x0F0F0F0F0F0F0F0FL) + 0x0606060606060606L) & 0x1010101010101010L;
+            long nonDigitBytes = highNibbles | lowNibbleCarries;
+            // Sets the high bit of each nonzero byte
+            return ((nonDigitBytes & 0x7F7F7F7F7F7F7F7FL) + 0x7F7F7F7F7F7F7F7FL | nonDigitBytes) & 0x8080808080808080L;
+        }
+
+        // Parses a value of any length byte by byte, checking its format
+        private long parseLongValue(long cursor, int valueIndex) {
+            int precision = precisions[valueIndex];
+            long start = cursor;
+            boolean negative = Aggregator.getByte(cursor) == '-';
+            if (negative) {
+                cursor++;
+            }
+            long value = 0;
+            int fractionLen = -1;
+            int digits = 0;
+            while (true) {
+                byte b = Aggregator.getByte(cursor);
+                if (b >= '0' && b <= '9') {
+                    value = value * 10 + (b - '0');
+                    digits++;
+                    if (fractionLen >= 0) {
+                        fractionLen++;
+                    }
+                    if (value > Integer.MAX_VALUE) {
+                        throw new IllegalArgumentException("Value out of range at " + describe(start));
+                    }
+                } else if (b == '.' && fractionLen < 0) {
+                    fractionLen = 0;
+                } else {
+                    break;
+                }
+                cursor++;
+            }
+            byte end = Aggregator.getByte(cursor);
+            if (digits == 0 || fractionLen > precision || (end != delimiter && end != '\n')) {
+                throw new IllegalArgumentException("Not a number with at most " + precision
+                        + " fractional digits at " + describe(start));
+            }
+            value *= POWERS_OF_10[precision - Math.max(0, fractionLen)];
+            if (value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Value out of range at " + describe(start));
+            }
+            values[valueIndex] = negative ? -value : value;
+            lineEnded = end == '\n';
+            return cursor + 1;
+        }
+
+        private static String describe(long address) {
+            var field = new StringBuilder();
+            for (long i = address; field.length() < 32 && Aggregator.getByte(i) != '\n'; i++) {
+                field.append((char) Aggregator.getByte(i));
+            }
+            return '"' + field.toString() + '"';
+        }
+    }
+}
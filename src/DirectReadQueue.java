@@ -0,0 +1,236 @@
+import com.sun.nio.file.ExtendedOpenOption;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+// Reads the chunks of the input files with positional reads into a pool of aligned
+// off-heap buffers, for files that aren't in the page cache. The workers never take
+// a page fault on the input: a pool of reader threads keeps up to ioDepth reads in
+// flight, which the device serves in parallel, and the workers parse the buffers
+// that are ready. The files are opened with O_DIRECT, bypassing the page cache,
+// where the filesystem supports it, and read through the page cache otherwise.
+//
+// Each chunk is read together with the block before it, to find the first line
+// that starts in the chunk, and LINE_OVERLAP bytes after it, to finish its last
+// line. So the chunks can be read and parsed in any order.
+class DirectReadQueue implements AutoCloseable {
+    private static final int BLOCK_SIZE = 4096;
+    // The longest line the reader can handle
+    private static final int LINE_OVERLAP = 4096;
+
+    private static final ReadBuffer END_OF_INPUT = new ReadBuffer(MemorySegment.NULL);
+
+    private static class Task {
+        final FileChannel channel;
+        final long offset;
+        final long fileSize;
+
+        Task(FileChannel channel, long offset, long fileSize) {
+            this.channel = channel;
+            this.offset = offset;
+            this.fileSize = fileSize;
+        }
+    }
+
+    private static class ReadBuffer {
+        final long address;
+        final ByteBuffer byteBuffer;
+        // The lines to parse start in [address + begin, address + limit)
+        int begin;
+        int limit;
+
+        ReadBuffer(MemorySegment segment) {
+            this.address = segment.address();
+            this.byteBuffer = segment.byteSize() == 0 ? null : segment.asByteBuffer();
+        }
+    }
+
+    private final Arena arena = Arena.ofShared();
+    private final List<FileChannel> channels = new ArrayList<>();
+    private final Task[] tasks;
+    private final int chunkSize;
+    private final int workerCount;
+    private final AtomicInteger nextTask = new AtomicInteger();
+    private final BlockingQueue<ReadBuffer> freeBuffers;
+    private final BlockingQueue<ReadBuffer> filledBuffers;
+    private final Thread[] readers;
+    private final AtomicInteger runningReaders;
+    private boolean direct = true;
+    private volatile IOException readError;
+
+    DirectReadQueue(List<Path> files, int chunkSize, int ioDepth, int workerCount) throws IOException {
+        // O_DIRECT needs block-aligned offsets and sizes
+        this.chunkSize = (chunkSize + BLOCK_SIZE - 1) & -BLOCK_SIZE;
+        this.workerCount = workerCount;
+        var taskList = new ArrayList<Task>();
+        try {
+            for (var file : files) {
+                var channel = open(file);
+                channels.add(channel);
+                long fileSize = channel.size();
+                for (long offset = 0; offset < fileSize; offset += this.chunkSize) {
+                    taskList.add(new Task(channel, offset, fileSize));
+                }
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        tasks = taskList.toArray(Task[]::new);
+        int bufferCount = ioDepth + workerCount;
+        int readSize = BLOCK_SIZE + this.chunkSize + LINE_OVERLAP;
+        freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+        filledBuffers = new ArrayBlockingQueue<>(bufferCount + workerCount);
+        for (int i = 0; i < bufferCount; i++) {
+            var segment = arena.allocate(readSize + 1 + Aggregator.TAIL_PADDING, BLOCK_SIZE);
+            freeBuffers.add(new ReadBuffer(segment.asSlice(0, readSize)));
+        }
+        readers = new Thread[ioDepth];
+        runningReaders = new AtomicInteger(ioDepth);
+        for (int i = 0; i < ioDepth; i++) {
+            readers[i] = new Thread(this::readAll);
+        }
+    }
+
+    // Falls back to reading through the page cache if the filesystem refuses O_DIRECT
+    private FileChannel open(Path file) throws IOException {
+        if (direct) {
+            try {
+                if (Files.getFileStore(file).getBlockSize() <= BLOCK_SIZE) {
+                    return FileChannel.open(file, READ, ExtendedOpenOption.DIRECT);
+                }
+            }
+            catch (IOException | UnsupportedOperationException e) {
+                // Not supported by this filesystem
+            }
+            direct = false;
+        }
+        return FileChannel.open(file, READ);
+    }
+
+    // Returns whether the files were opened with O_DIRECT
+    boolean direct() {
+        return direct;
+    }
+
+    void start() {
+        for (var reader : readers) {
+            reader.start();
+        }
+    }
+
+    private void readAll() {
+        try {
+            while (readError == null) {
+                int taskIndex = nextTask.getAndIncrement();
+                if (taskIndex >= tasks.length) {
+                    break;
+                }
+                var buffer = Aggregator.takeUninterruptibly(freeBuffers);
+                read(tasks[taskIndex], buffer);
+                filledBuffers.add(buffer);
+            }
+        }
+        catch (IOException e) {
+            readError = e;
+        }
+        finally {
+            if (runningReaders.decrementAndGet() == 0) {
+                for (int i = 0; i < workerCount; i++) {
+                    filledBuffers.add(END_OF_INPUT);
+                }
+            }
+        }
+    }
+
+    private void read(Task task, ReadBuffer buffer) throws IOException {
+        int blockBefore = task.offset == 0 ? 0 : BLOCK_SIZE;
+        long readStart = task.offset - blockBefore;
+        var byteBuffer = buffer.byteBuffer.clear();
+        // With O_DIRECT only the read that hits the end of the file may come up short
+        while (byteBuffer.hasRemaining() && readStart + byteBuffer.position() < task.fileSize) {
+            if (task.channel.read(byteBuffer, readStart + byteBuffer.position()) <= 0) {
+                break;
+            }
+        }
+        int size = byteBuffer.position();
+        boolean endOfFile = readStart + size >= task.fileSize;
+        if (endOfFile) {
+            size = (int) (task.fileSize - readStart);
+            if (size > 0 && Aggregator.getByte(buffer.address + size - 1) != '\n') {
+                Aggregator.UNSAFE.putByte(buffer.address + size, (byte) '\n');
+                size++;
+            }
+        }
+        int begin = blockBefore;
+        if (blockBefore != 0) {
+            while (begin <= size && Aggregator.getByte(buffer.address + begin - 1) != '\n') {
+                begin++;
+            }
+        }
+        int limit = Math.min(blockBefore + chunkSize, size);
+        if (!endOfFile && begin < limit) {
+            int lastLineEnd = limit - 1;
+            while (lastLineEnd < size && Aggregator.getByte(buffer.address + lastLineEnd) != '\n') {
+                lastLineEnd++;
+            }
+            if (lastLineEnd == size) {
+                throw new IOException("Found a line longer than " + LINE_OVERLAP + " bytes");
+            }
+        }
+        buffer.begin = begin;
+        buffer.limit = limit;
+    }
+
+    void processAll(Aggregator.ChunkHandler processor, WorkerStats stats) {
+        while (true) {
+            var buffer = Aggregator.takeUninterruptibly(filledBuffers);
+            if (buffer == END_OF_INPUT) {
+                break;
+            }
+            long start = System.nanoTime();
+            processor.processChunk(buffer.address + buffer.begin, buffer.address + buffer.limit);
+            stats.chunkDone(buffer.limit - buffer.begin, start, System.nanoTime());
+            freeBuffers.add(buffer);
+        }
+    }
+
+    // Waits for the readers and rethrows the first read error
+    void awaitReaders() throws IOException {
+        for (var reader : readers) {
+            while (true) {
+                try {
+                    reader.join();
+                    break;
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (readError != null) {
+            throw readError;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (var channel : channels) {
+            channel.close();
+        }
+        arena.close();
+    }
+}
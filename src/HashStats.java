@@ -0,0 +1,81 @@
+// How well a hash strategy spreads the names of a dataset over the station tables.
+// Computed after the run from the final table layouts, each station weighted by its
+// row count, so collecting it costs nothing in the hot loop:
+//
+//     java --enable-preview Blog6 --hash all-words --hash-stats
+//
+// A row's probe length is the number of slots looked at to find its station. Rows
+// with a probe length above 1, or with a name longer than 16 bytes, miss the
+// findAcc2() fast path and go through ensureAcc(), which calls nameEquals() for
+// each slot on the way that has the same hash.
+public class HashStats {
+    // Probe lengths 1..MAX_PROBE_LENGTH, the last bucket also counts longer probes
+    static final int MAX_PROBE_LENGTH = 16;
+
+    long stations;
+    long rows;
+    final long[] rowsByProbeLength = new long[MAX_PROBE_LENGTH];
+    long probes;
+    long slowPathRows;
+    long nameEqualsCalls;
+    // Stations that come after another station with the same full 64-bit hash in
+    // their probe sequence
+    long sameHashStations;
+
+    synchronized void add(HashStats that) {
+        stations += that.stations;
+        rows += that.rows;
+        for (int i = 0; i < MAX_PROBE_LENGTH; i++) {
+            rowsByProbeLength[i] += that.rowsByProbeLength[i];
+        }
+        probes += that.probes;
+        slowPathRows += that.slowPathRows;
+        nameEqualsCalls += that.nameEqualsCalls;
+        sameHashStations += that.sameHashStations;
+    }
+
+    public long rows() {
+        return rows;
+    }
+
+    public double meanProbeLength() {
+        return (double) probes / rows;
+    }
+
+    // The share of rows that didn't find their station in its home slot
+    public double collisionRate() {
+        return (double) (rows - rowsByProbeLength[0]) / rows;
+    }
+
+    public double slowPathRate() {
+        return (double) slowPathRows / rows;
+    }
+
+    public double nameEqualsPerRow() {
+        return (double) nameEqualsCalls / rows;
+    }
+
+    // Returns the number of rows for each probe length, starting at 1
+    public long[] rowsByProbeLength() {
+        return rowsByProbeLength.clone();
+    }
+
+    @Override
+    public String toString() {
+        var report = new StringBuilder(String.format(
+                "%,d stations in all tables, %,d rows%n"
+                        + "mean probe length %.3f, collision rate %.2f%%%n"
+                        + "slow path rate %.2f%%, nameEquals calls per row %.3f%n"
+                        + "stations probed after another one with the same full hash: %,d%n"
+                        + "rows by probe length:%n",
+                stations, rows, meanProbeLength(), 100 * collisionRate(),
+                100 * slowPathRate(), nameEqualsPerRow(), sameHashStations));
+        for (int i = 0; i < MAX_PROBE_LENGTH; i++) {
+            if (rowsByProbeLength[i] != 0) {
+                report.append(String.format("%5s %,15d  %6.2f%%%n", (i + 1) + (i == MAX_PROBE_LENGTH - 1 ? "+" : ""),
+                        rowsByProbeLength[i], 100.0 * rowsByProbeLength[i] / rows));
+            }
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,118 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs a program's work in a child process and returns as soon as the child has
+// written its output, without waiting for the child to exit. Unmapping a big input,
+// freeing the off-heap memory and shutting down the JVM take tens of milliseconds
+// after the result is already printed, and nobody needs to wait for them.
+//
+//     public static void main(String[] args) throws Exception {
+//         Launcher.launch(MyMain.class, args, MyMain::run);
+//     }
+//
+// The child gets the same arguments, stdin and stderr. When the work is done it
+// writes its exit status to a file and closes stdout. The parent copies the child's
+// stdout to its own, reads the status once stdout is closed, and exits with it. If
+// the child dies before writing the status, the parent waits for it and takes its
+// exit code.
+//
+// The child is started with the same executable: the native image itself, or the
+// java launcher with this JVM's options and class path. Two environment variables
+// control the parent:
+//
+//     LAUNCHER_MODE=inline    run the work in this process, without a child
+//     LAUNCHER_REPORT=1       wait for the child to exit anyway, and report on
+//                             stderr how much time not waiting saves
+class Launcher {
+    private static final String STATUS_FILE_VARIABLE = "LAUNCHER_STATUS_FILE";
+
+    interface Work {
+        // Returns the exit code
+        int run(String[] args) throws Exception;
+    }
+
+    static void launch(Class<?> mainClass, String[] args, Work work) throws Exception {
+        var statusFile = System.getenv(STATUS_FILE_VARIABLE);
+        if (statusFile != null) {
+            runChild(args, work, Path.of(statusFile));
+            return;
+        }
+        if ("inline".equals(System.getenv("LAUNCHER_MODE"))) {
+            exit(work.run(args));
+            return;
+        }
+        exit(runParent(mainClass, args));
+    }
+
+    private static void runChild(String[] args, Work work, Path statusFile) throws Exception {
+        long start = System.nanoTime();
+        int status = work.run(args);
+        System.out.flush();
+        Files.writeString(statusFile, status + " " + (System.nanoTime() - start) / 1_000_000);
+        // The parent returns now, and the teardown happens while nobody waits for it
+        System.out.close();
+        exit(status);
+    }
+
+    private static int runParent(Class<?> mainClass, String[] args) throws Exception {
+        long start = System.nanoTime();
+        var statusFile = Files.createTempFile("launcher", ".status");
+        try {
+            var processBuilder = new ProcessBuilder(childCommand(mainClass, args))
+                    .inheritIO()
+                    .redirectOutput(ProcessBuilder.Redirect.PIPE);
+            processBuilder.environment().put(STATUS_FILE_VARIABLE, statusFile.toString());
+            var process = processBuilder.start();
+            process.getInputStream().transferTo(System.out);
+            System.out.flush();
+            long outputDone = System.nanoTime();
+            var status = Files.readString(statusFile).split(" ");
+            int exitCode = status.length == 2 ? Integer.parseInt(status[0]) : process.waitFor();
+            if ("1".equals(System.getenv("LAUNCHER_REPORT"))) {
+                process.waitFor();
+                long exited = System.nanoTime();
+                System.err.format("launcher: %s, output done after %,d ms, child exited after %,d ms, "
+                                + "not waiting saved %,d ms%n",
+                        status.length == 2 ? "work took " + status[1] + " ms in the child" : "child failed",
+                        (outputDone - start) / 1_000_000, (exited - start) / 1_000_000,
+                        (exited - outputDone) / 1_000_000);
+            }
+            return exitCode;
+        }
+        finally {
+            Files.deleteIfExists(statusFile);
+        }
+    }
+
+    // The same executable with the same options, instead of the command line from
+    // ProcessHandle.info(), which can be missing or cut short
+    private static List<String> childCommand(Class<?> mainClass, String[] args) throws IOException {
+        var command = new ArrayList<String>();
+        if (System.getProperty("org.graalvm.nativeimage.imagecode") != null) {
+            command.add(ProcessHandle.current().info().command().orElse("/proc/self/exe"));
+        } else {
+            var java = Path.of(System.getProperty("java.home"), "bin", "java");
+            if (!Files.isExecutable(java)) {
+                throw new IOException("Can't start a child process without " + java
+                        + ", use LAUNCHER_MODE=inline");
+            }
+            command.add(java.toString());
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(mainClass.getName());
+        }
+        command.addAll(List.of(args));
+        return command;
+    }
+
+    private static void exit(int status) {
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+}
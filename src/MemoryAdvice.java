@@ -0,0 +1,95 @@
+import sun.misc.Unsafe;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// madvise() on mapped input through the FFM API, and the process's page-fault
+// counts. The advice values are Linux's. On other platforms, or when the kernel
+// doesn't know an advice, madvise() returns the errno and nothing else happens.
+class MemoryAdvice {
+    private static final Unsafe UNSAFE = Aggregator.UNSAFE;
+
+    static final int MADV_SEQUENTIAL = 2;
+    static final int MADV_WILLNEED = 3;
+    static final int MADV_HUGEPAGE = 14;
+    // Since Linux 5.14: maps the pages into the page table, reading them if needed
+    static final int MADV_POPULATE_READ = 22;
+
+    private static final long PAGE_SIZE = 4096;
+    private static final int ENOSYS = 38;
+
+    // Created on first use, so runs without madvise never touch the linker
+    private static class Madvise {
+        static final StructLayout CALL_STATE = Linker.Option.captureStateLayout();
+        static final VarHandle ERRNO = CALL_STATE.varHandle(PathElement.groupElement("errno"));
+        static final MethodHandle MADVISE = Linker.nativeLinker().defaultLookup()
+                .find("madvise")
+                .map(address -> Linker.nativeLinker().downcallHandle(address,
+                        FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG,
+                                ValueLayout.JAVA_INT),
+                        Linker.Option.captureCallState("errno")))
+                .orElse(null);
+    }
+
+    // Keeps the JIT from eliminating the loads of touch()
+    private static volatile long touchSink;
+
+    // Returns 0 on success, or the errno. The range is widened to whole pages.
+    static int madvise(long address, long size, int advice) {
+        if (Madvise.MADVISE == null) {
+            return ENOSYS;
+        }
+        long pageStart = address & -PAGE_SIZE;
+        try (var arena = Arena.ofConfined()) {
+            var callState = arena.allocate(Madvise.CALL_STATE);
+            int result = (int) Madvise.MADVISE.invokeExact(callState, MemorySegment.ofAddress(pageStart),
+                    size + (address - pageStart), advice);
+            return result == 0 ? 0 : (int) Madvise.ERRNO.get(callState);
+        }
+        catch (Throwable e) {
+            return ENOSYS;
+        }
+    }
+
+    // Maps the range into the page table before the workers get to it, so they don't
+    // take the page faults. Falls back to touching a byte of each page on kernels
+    // without MADV_POPULATE_READ.
+    static void prefault(long address, long size) {
+        if (madvise(address, size, MADV_POPULATE_READ) != 0) {
+            touch(address, size);
+        }
+    }
+
+    private static void touch(long address, long size) {
+        long sum = 0;
+        for (long page = address; page < address + size; page += PAGE_SIZE) {
+            sum += UNSAFE.getByte(page);
+        }
+        touchSink = sum;
+    }
+
+    // Returns the minor and major page faults of this process so far, or zeros if
+    // /proc isn't there
+    static long[] pageFaults() {
+        try {
+            var stat = Files.readString(Path.of("/proc/self/stat"));
+            // The fields after the command name, which may contain spaces, start with
+            // the state, so minflt and majflt are the 8th and 10th
+            var fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            return new long[] { Long.parseLong(fields[7]), Long.parseLong(fields[9]) };
+        }
+        catch (IOException | RuntimeException e) {
+            return new long[2];
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+// The NUMA nodes of this machine and their CPUs, as listed in /sys. Without the
+// /sys topology (not Linux, or hidden in a container) it's a single node with all
+// the CPUs. Threads are pinned to a node's CPUs by calling sched_setaffinity()
+// through the FFM API.
+class NumaTopology {
+    private static final Path NODES_DIR = Path.of("/sys/devices/system/node");
+    private static final Pattern NODE_NAME = Pattern.compile("node(\\d+)");
+
+    // Indexed by node, in the order of the node numbers
+    final int[][] nodeCpus;
+
+    private NumaTopology(int[][] nodeCpus) {
+        this.nodeCpus = nodeCpus;
+    }
+
+    int nodeCount() {
+        return nodeCpus.length;
+    }
+
+    static NumaTopology detect() {
+        var nodes = new ArrayList<int[]>();
+        try (var dirs = Files.newDirectoryStream(NODES_DIR, "node*")) {
+            var nodeNumbers = new ArrayList<Integer>();
+            for (var dir : dirs) {
+                var matcher = NODE_NAME.matcher(dir.getFileName().toString());
+                if (matcher.matches()) {
+                    nodeNumbers.add(Integer.parseInt(matcher.group(1)));
+                }
+            }
+            nodeNumbers.sort(null);
+            for (int node : nodeNumbers) {
+                var cpus = parseCpuList(Files.readString(NODES_DIR.resolve("node" + node).resolve("cpulist")));
+                // Memory-only nodes have no CPUs to run workers on
+                if (cpus.length > 0) {
+                    nodes.add(cpus);
+                }
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            nodes.clear();
+        }
+        if (nodes.isEmpty()) {
+            int cpuCount = Runtime.getRuntime().availableProcessors();
+            var allCpus = new int[cpuCount];
+            for (int i = 0; i < cpuCount; i++) {
+                allCpus[i] = i;
+            }
+            nodes.add(allCpus);
+        }
+        return new NumaTopology(nodes.toArray(int[][]::new));
+    }
+
+    // Parses the kernel's CPU list format, like "0-3,8-11"
+    static int[] parseCpuList(String cpuList) {
+        var cpus = new ArrayList<Integer>();
+        for (var range : cpuList.trim().split(",")) {
+            if (range.isEmpty()) {
+                continue;
+            }
+            var bounds = range.split("-");
+            int first = Integer.parseInt(bounds[0]);
+            int last = bounds.length > 1 ? Integer.parseInt(bounds[1]) : first;
+            for (int cpu = first; cpu <= last; cpu++) {
+                cpus.add(cpu);
+            }
+        }
+        return cpus.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Created on first use, so the mode that doesn't pin never touches the linker
+    private static class Affinity {
+        static final MethodHandle SCHED_SETAFFINITY = Linker.nativeLinker().defaultLookup()
+                .find("sched_setaffinity")
+                .map(address -> Linker.nativeLinker().downcallHandle(address, FunctionDescriptor.of(
+                        ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.ADDRESS)))
+                .orElse(null);
+    }
+
+    // Restricts the calling thread to the node's CPUs. Returns false if the kernel
+    // refused, or there's no sched_setaffinity() on this platform.
+    boolean pinCurrentThread(int node) {
+        if (Affinity.SCHED_SETAFFINITY == null) {
+            return false;
+        }
+        int maxCpu = 0;
+        for (int cpu : nodeCpus[node]) {
+            maxCpu = Math.max(maxCpu, cpu);
+        }
+        // A cpu_set_t is a bit mask in an array of longs
+        long maskSize = (maxCpu / Long.SIZE + 1) * (long) Long.BYTES;
+        try (var arena = Arena.ofConfined()) {
+            var mask = arena.allocate(maskSize, Long.BYTES);
+            for (int cpu : nodeCpus[node]) {
+                long word = mask.getAtIndex(ValueLayout.JAVA_LONG, cpu / Long.SIZE);
+                mask.setAtIndex(ValueLayout.JAVA_LONG, cpu / Long.SIZE, word | (1L << (cpu % Long.SIZE)));
+            }
+            // pid 0 is the calling thread
+            return (int) Affinity.SCHED_SETAFFINITY.invokeExact(0, maskSize, mask) == 0;
+        }
+        catch (Throwable e) {
+            return false;
+        }
+    }
+}
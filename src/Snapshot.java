@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+// Exact aggregated stats in a compact binary file that's read by mapping it into
+// memory. Snapshots of different files, days or hosts can be merged:
+//
+//     java Snapshot merge OUT IN...    writes the merged totals of all the inputs to OUT
+//     java Snapshot print IN...        prints the merged totals of all the inputs
+//
+// Layout, all little-endian:
+//
+// header (32 bytes):
+//  0: magic "1BRS"
+//  4: format version
+//  8: station count
+// 12: size of the name area
+// 16: offset in the input up to which the stats are aggregated, see Aggregator.aggregateAppended()
+// 24: reserved
+//
+// one record per station, sorted by name (32 bytes each):
+//  0: sum
+//  8: count
+// 16: min
+// 20: max
+// 24: offset of the name in the name area
+// 28: length of the name
+//
+// name area: UTF-8 encoded names, each stored once
+class Snapshot {
+    private static final int MAGIC = 0x53524231; // "1BRS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 32;
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    long offset;
+    TreeMap<String, StationStats> totals;
+
+    Snapshot(long offset, TreeMap<String, StationStats> totals) {
+        this.offset = offset;
+        this.totals = totals;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 3 && args[0].equals("merge")) {
+            var start = System.currentTimeMillis();
+            var inputs = new ArrayList<Path>();
+            for (int i = 2; i < args.length; i++) {
+                inputs.add(Path.of(args[i]));
+            }
+            new Snapshot(0, merge(inputs)).save(Path.of(args[1]));
+            System.err.format("Merged %d snapshots in %,d ms\n", inputs.size(), System.currentTimeMillis() - start);
+        } else if (args.length >= 2 && args[0].equals("print")) {
+            var inputs = new ArrayList<Path>();
+            for (int i = 1; i < args.length; i++) {
+                inputs.add(Path.of(args[i]));
+            }
+            System.out.println(merge(inputs));
+        } else {
+            System.err.println("Usage: java Snapshot merge OUT IN... | print IN...");
+            System.exit(1);
+        }
+    }
+
+    static TreeMap<String, StationStats> merge(List<Path> paths) throws IOException {
+        var totals = new TreeMap<String, StationStats>();
+        for (var path : paths) {
+            for (var stats : load(path).totals.values()) {
+                totals.merge(stats.name, stats, StationStats::merge);
+            }
+        }
+        return totals;
+    }
+
+    // Returns an empty snapshot if the file doesn't exist
+    static Snapshot load(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return new Snapshot(0, new TreeMap<>());
+        }
+        try (var channel = FileChannel.open(path, READ);
+             var arena = Arena.ofConfined()
+        ) {
+            var file = channel.map(MapMode.READ_ONLY, 0, channel.size(), arena);
+            if (file.byteSize() < HEADER_SIZE || file.get(INT, 0) != MAGIC) {
+                throw new IOException(path + " is not a snapshot file");
+            }
+            if (file.get(INT, 4) != VERSION) {
+                throw new IOException(path + " has unsupported snapshot version " + file.get(INT, 4));
+            }
+            int stationCount = file.get(INT, 8);
+            long namesBase = HEADER_SIZE + (long) stationCount * RECORD_SIZE;
+            var totals = new TreeMap<String, StationStats>();
+            for (int i = 0; i < stationCount; i++) {
+                long record = HEADER_SIZE + (long) i * RECORD_SIZE;
+                var nameBytes = file.asSlice(namesBase + file.get(INT, record + 24), file.get(INT, record + 28))
+                                    .toArray(ValueLayout.JAVA_BYTE);
+                var name = new String(nameBytes, StandardCharsets.UTF_8);
+                totals.put(name, new StationStats(name, file.get(LONG, record), file.get(LONG, record + 8),
+                        file.get(INT, record + 16), file.get(INT, record + 20)));
+            }
+            return new Snapshot(file.get(LONG, 16), totals);
+        }
+    }
+
+    // Writes to a temporary file first, so a crash never leaves a half-written snapshot
+    void save(Path path) throws IOException {
+        var names = new byte[totals.size()][];
+        int namesSize = 0;
+        int i = 0;
+        for (var name : totals.keySet()) {
+            names[i] = name.getBytes(StandardCharsets.UTF_8);
+            namesSize += names[i].length;
+            i++;
+        }
+        var buf = ByteBuffer.allocateDirect(HEADER_SIZE + totals.size() * RECORD_SIZE + namesSize)
+                            .order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(totals.size()).putInt(namesSize).putLong(offset).putLong(0);
+        int nameOffset = 0;
+        i = 0;
+        for (var stats : totals.values()) {
+            buf.putLong(stats.sum).putLong(stats.count).putInt(stats.min).putInt(stats.max)
+               .putInt(nameOffset).putInt(names[i].length);
+            nameOffset += names[i].length;
+            i++;
+        }
+        for (var name : names) {
+            buf.put(name);
+        }
+        buf.flip();
+        var tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(tmpPath, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+        Files.move(tmpPath, path, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+}
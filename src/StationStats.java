@@ -0,0 +1,125 @@
+// Aggregated measurements of a single station. Temperatures are kept in tenths of
+// a degree, exactly as parsed from the input, so merging never loses precision.
+// DelimitedAggregator's values are kept in units of 10^-precision the same way.
+// With Aggregator.percentiles(true) the stats also have a histogram with the count
+// of each temperature, which gives exact percentiles.
+public class StationStats implements Comparable<StationStats> {
+    String name;
+    long sum;
+    long count;
+    int min;
+    int max;
+    // Indexed by temperature + 999, or null if the percentiles weren't collected
+    long[] histogram;
+    // The number of fractional digits, 1 for temperatures
+    int precision = 1;
+
+    StationStats(String name, long sum, long count, int min, int max) {
+        this.name = name;
+        this.sum = sum;
+        this.count = count;
+        this.min = min;
+        this.max = max;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public long sum() {
+        return sum;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public int precision() {
+        return precision;
+    }
+
+    public double min() {
+        return min / scale();
+    }
+
+    public double max() {
+        return max / scale();
+    }
+
+    public double mean() {
+        return Math.round((double) sum / count) / scale();
+    }
+
+    private double scale() {
+        return precision == 1 ? 10.0 : Math.pow(10, precision);
+    }
+
+    public boolean hasPercentiles() {
+        return histogram != null;
+    }
+
+    // Returns the smallest temperature such that at least the given fraction of all
+    // the measurements is lower or equal to it (the nearest-rank method)
+    public double percentile(double fraction) {
+        if (histogram == null) {
+            throw new IllegalStateException("Percentiles weren't collected for " + name);
+        }
+        if (!(fraction > 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("fraction must be in (0, 1], got " + fraction);
+        }
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = min + 999; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return (i - 999) / 10.0;
+            }
+        }
+        return max();
+    }
+
+    // Stats merged with stats without a histogram lose the histogram, because their
+    // percentiles wouldn't be exact anymore
+    StationStats merge(StationStats that) {
+        count += that.count;
+        sum += that.sum;
+        min = Math.min(min, that.min);
+        max = Math.max(max, that.max);
+        if (histogram != null && that.histogram != null) {
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] += that.histogram[i];
+            }
+        } else {
+            histogram = null;
+        }
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        if (histogram != null) {
+            return String.format("%.1f/%.1f/%.1f p50=%.1f p95=%.1f p99=%.1f", min(), mean(), max(),
+                    percentile(0.50), percentile(0.95), percentile(0.99));
+        }
+        if (precision != 1) {
+            var format = "%." + precision + "f";
+            return String.format(format + "/" + format + "/" + format, min(), mean(), max());
+        }
+        return String.format("%.1f/%.1f/%.1f", min(), mean(), max());
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        return that.getClass() == StationStats.class && ((StationStats) that).name.equals(this.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public int compareTo(StationStats that) {
+        return name.compareTo(that.name);
+    }
+}
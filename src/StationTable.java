@@ -0,0 +1,413 @@
+import sun.misc.Unsafe;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+// Open-addressing hashtable that keeps its slots and the name bytes that don't fit
+// into a slot in a single off-heap block. The block is reallocated at twice the
+// size whenever the slots become half full or the name area runs out of space.
+//
+// Optionally, the table also counts each temperature of each station in a histogram
+// of HISTOGRAM_BUCKETS ints, one bucket per possible temperature, for exact
+// percentiles. The histograms are in a separate off-heap block, in the order the
+// stations were inserted, so growing the table doesn't move them.
+//
+// Slot layout (64 bytes, so a slot never straddles two cache lines):
+//  0: hash
+//  8: nameWord0
+// 16: nameWord1
+// 24: offset of the name tail in the name area
+// 28: index of the temperature histogram, if the table keeps histograms, or else an
+//     id the engine gives the station, see slotId()
+// 32: sum
+// 40: count
+// 44: nameLen (0 marks an empty slot)
+// 48: min
+// 52: max
+// 56: group, an optional second part of the key, such as the time window
+class StationTable {
+    private static final Unsafe UNSAFE = Aggregator.UNSAFE;
+
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final int SLOT_SIZE = 64;
+    private static final int HASH_OFFSET = 0;
+    private static final int NAME_WORD0_OFFSET = 8;
+    private static final int NAME_WORD1_OFFSET = 16;
+    private static final int TAIL_OFFSET = 24;
+    private static final int HISTOGRAM_OFFSET = 28;
+    private static final int SUM_OFFSET = 32;
+    private static final int COUNT_OFFSET = 40;
+    private static final int NAMELEN_OFFSET = 44;
+    private static final int MIN_OFFSET = 48;
+    private static final int MAX_OFFSET = 52;
+    private static final int GROUP_OFFSET = 56;
+    private static final int NAMETAIL_OFFSET = 2 * Long.BYTES;
+    // Lets VectorChunkProcessor load a full vector at the end of the last name
+    private static final int NAMES_PADDING = 64;
+
+    // One bucket for each temperature in -99.9..99.9
+    static final int HISTOGRAM_BUCKETS = 1999;
+    private static final int HISTOGRAM_SIZE = HISTOGRAM_BUCKETS * Integer.BYTES;
+    private static final int HISTOGRAM_BIAS = 999;
+
+    private long rawBase;
+    private long base;
+    private int capacity;
+    private int mask;
+    private int size;
+    private long namesBase;
+    private long namesSize;
+    private long namesUsed;
+    private final boolean withHistograms;
+    // Lookups that missed findAcc2() and took the slow path, for WorkerStats
+    long ensureAccCalls;
+
+    private long histogramsBase;
+    private int histogramCapacity;
+
+    StationTable() {
+        this(false);
+    }
+
+    StationTable(boolean withHistograms) {
+        allocate(INITIAL_CAPACITY, (long) INITIAL_CAPACITY * Long.BYTES);
+        this.withHistograms = withHistograms;
+    }
+
+    private void allocate(int capacity, long namesSize) {
+        long blockSize = (long) capacity * SLOT_SIZE + namesSize + NAMES_PADDING;
+        this.rawBase = UNSAFE.allocateMemory(blockSize + SLOT_SIZE - 1);
+        this.base = (rawBase + SLOT_SIZE - 1) & -SLOT_SIZE;
+        UNSAFE.setMemory(base, (long) capacity * SLOT_SIZE, (byte) 0);
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.namesBase = base + (long) capacity * SLOT_SIZE;
+        this.namesSize = namesSize;
+    }
+
+    long findAcc2(long hash, long nameWord0, long nameWord1) {
+        long slot = base + ((hash & mask) * SLOT_SIZE);
+        // An empty slot is all zeros, which never matches because a short name
+        // always contains the semicolon in nameWord0 or nameWord1.
+        if (UNSAFE.getLong(slot + HASH_OFFSET) == hash
+                && UNSAFE.getLong(slot + NAME_WORD0_OFFSET) == nameWord0
+                && UNSAFE.getLong(slot + NAME_WORD1_OFFSET) == nameWord1
+        ) {
+            return slot;
+        }
+        return 0;
+    }
+
+    // Like findAcc2(), for tables keyed by both the name and the group
+    long findAcc2(long hash, long nameWord0, long nameWord1, long group) {
+        long slot = base + ((hash & mask) * SLOT_SIZE);
+        if (UNSAFE.getLong(slot + HASH_OFFSET) == hash
+                && UNSAFE.getLong(slot + NAME_WORD0_OFFSET) == nameWord0
+                && UNSAFE.getLong(slot + NAME_WORD1_OFFSET) == nameWord1
+                && UNSAFE.getLong(slot + GROUP_OFFSET) == group
+        ) {
+            return slot;
+        }
+        return 0;
+    }
+
+    // Loads the first word of the hash's slot, so it's in the cache by the time the
+    // slot is looked up. Java has no prefetch instruction, but a plain load whose
+    // result isn't needed soon doesn't stall the CPU.
+    long touch(long hash) {
+        return UNSAFE.getLong(base + ((hash & mask) * SLOT_SIZE));
+    }
+
+    long ensureAcc(
+            long hash, long nameStartOffset, int nameLen, long nameWord0, long nameWord1, long lastNameWord
+    ) {
+        return ensureAcc(hash, nameStartOffset, nameLen, nameWord0, nameWord1, lastNameWord, 0);
+    }
+
+    long ensureAcc(
+            long hash, long nameStartOffset, int nameLen, long nameWord0, long nameWord1, long lastNameWord,
+            long group
+    ) {
+        ensureAccCalls++;
+        long slotPos = hash & mask;
+        while (true) {
+            long slot = base + slotPos * SLOT_SIZE;
+            if (UNSAFE.getInt(slot + NAMELEN_OFFSET) == 0) {
+                return insert(hash, nameStartOffset, nameLen, nameWord0, nameWord1, lastNameWord, group);
+            }
+            if (UNSAFE.getLong(slot + HASH_OFFSET) == hash
+                    && UNSAFE.getLong(slot + GROUP_OFFSET) == group
+                    && nameEquals(slot, nameStartOffset, nameLen, nameWord0, nameWord1, lastNameWord)) {
+                return slot;
+            }
+            slotPos = (slotPos + 1) & mask;
+        }
+    }
+
+    // Slot accessors for engines that probe the table themselves
+
+    long firstSlot(long hash) {
+        return base + (hash & mask) * SLOT_SIZE;
+    }
+
+    long nextSlot(long slot) {
+        return base + ((slot - base + SLOT_SIZE) & ((long) mask * SLOT_SIZE));
+    }
+
+    static boolean isEmpty(long slot) {
+        return UNSAFE.getInt(slot + NAMELEN_OFFSET) == 0;
+    }
+
+    static long slotHash(long slot) {
+        return UNSAFE.getLong(slot + HASH_OFFSET);
+    }
+
+    static int slotNameLen(long slot) {
+        return UNSAFE.getInt(slot + NAMELEN_OFFSET);
+    }
+
+    static long slotNameWord0(long slot) {
+        return UNSAFE.getLong(slot + NAME_WORD0_OFFSET);
+    }
+
+    static long slotNameWord1(long slot) {
+        return UNSAFE.getLong(slot + NAME_WORD1_OFFSET);
+    }
+
+    // Tables without histograms can keep an id of each station in its slot, which
+    // is 0 until it's set
+    static int slotId(long slot) {
+        return UNSAFE.getInt(slot + HISTOGRAM_OFFSET);
+    }
+
+    static void setSlotId(long slot, int id) {
+        UNSAFE.putInt(slot + HISTOGRAM_OFFSET, id);
+    }
+
+    String slotName(long slot) {
+        return exportNameString(slot);
+    }
+
+    // The number of stations
+    int size() {
+        return size;
+    }
+
+    // Returns the address that byte 16 of the name is stored at, minus 16
+    long slotNameTail(long slot) {
+        return namesBase + UNSAFE.getInt(slot + TAIL_OFFSET) - NAMETAIL_OFFSET;
+    }
+
+    private long insert(
+            long hash, long nameStartOffset, int nameLen, long nameWord0, long nameWord1, long lastNameWord,
+            long group
+    ) {
+        int nameTailLen = (nameLen - 1) / 8 - 1;
+        long tailBytes = Math.max(0, nameTailLen) * (long) Long.BYTES;
+        if (size + 1 > capacity / 2 || namesUsed + tailBytes > namesSize) {
+            grow(tailBytes);
+        }
+        long tailOffset = namesUsed;
+        if (nameTailLen > 0) {
+            int i = 0;
+            for (; i < nameTailLen - 1; i++) {
+                UNSAFE.putLong(namesBase + tailOffset + (long) i * Long.BYTES,
+                        UNSAFE.getLong(nameStartOffset + (i + 2L) * Long.BYTES));
+            }
+            UNSAFE.putLong(namesBase + tailOffset + (long) i * Long.BYTES, lastNameWord);
+            namesUsed += tailBytes;
+        }
+        long slotPos = hash & mask;
+        long slot;
+        while (true) {
+            slot = base + slotPos * SLOT_SIZE;
+            if (UNSAFE.getInt(slot + NAMELEN_OFFSET) == 0) {
+                break;
+            }
+            slotPos = (slotPos + 1) & mask;
+        }
+        UNSAFE.putLong(slot + HASH_OFFSET, hash);
+        UNSAFE.putLong(slot + NAME_WORD0_OFFSET, nameWord0);
+        UNSAFE.putLong(slot + NAME_WORD1_OFFSET, nameWord1);
+        UNSAFE.putInt(slot + TAIL_OFFSET, (int) tailOffset);
+        UNSAFE.putInt(slot + HISTOGRAM_OFFSET, withHistograms ? newHistogram() : 0);
+        UNSAFE.putLong(slot + SUM_OFFSET, 0);
+        UNSAFE.putInt(slot + COUNT_OFFSET, 0);
+        UNSAFE.putInt(slot + NAMELEN_OFFSET, nameLen);
+        UNSAFE.putInt(slot + MIN_OFFSET, Integer.MAX_VALUE);
+        UNSAFE.putInt(slot + MAX_OFFSET, Integer.MIN_VALUE);
+        UNSAFE.putLong(slot + GROUP_OFFSET, group);
+        size++;
+        return slot;
+    }
+
+    // Returns the index of a new zeroed histogram
+    private int newHistogram() {
+        if (size == histogramCapacity) {
+            int newCapacity = Math.max(64, 2 * histogramCapacity);
+            histogramsBase = UNSAFE.reallocateMemory(histogramsBase, (long) newCapacity * HISTOGRAM_SIZE);
+            UNSAFE.setMemory(histogramsBase + (long) histogramCapacity * HISTOGRAM_SIZE,
+                    (long) (newCapacity - histogramCapacity) * HISTOGRAM_SIZE, (byte) 0);
+            histogramCapacity = newCapacity;
+        }
+        return size;
+    }
+
+    private void grow(long extraNameBytes) {
+        long oldRawBase = rawBase;
+        long oldBase = base;
+        int oldCapacity = capacity;
+        long oldNamesBase = namesBase;
+        int newCapacity = size + 1 > capacity / 2 ? 2 * capacity : capacity;
+        long newNamesSize = namesSize;
+        while (namesUsed + extraNameBytes > newNamesSize) {
+            newNamesSize *= 2;
+        }
+        allocate(newCapacity, newNamesSize);
+        UNSAFE.copyMemory(oldNamesBase, namesBase, namesUsed);
+        for (int i = 0; i < oldCapacity; i++) {
+            long oldSlot = oldBase + (long) i * SLOT_SIZE;
+            if (UNSAFE.getInt(oldSlot + NAMELEN_OFFSET) == 0) {
+                continue;
+            }
+            long slotPos = UNSAFE.getLong(oldSlot + HASH_OFFSET) & mask;
+            while (UNSAFE.getInt(base + slotPos * SLOT_SIZE + NAMELEN_OFFSET) != 0) {
+                slotPos = (slotPos + 1) & mask;
+            }
+            UNSAFE.copyMemory(oldSlot, base + slotPos * SLOT_SIZE, SLOT_SIZE);
+        }
+        UNSAFE.freeMemory(oldRawBase);
+    }
+
+    private boolean nameEquals(
+            long slot, long inputNameStart, long inputNameLen, long inputWord0, long inputWord1, long lastInputWord
+    ) {
+        boolean mismatch0 = inputWord0 != UNSAFE.getLong(slot + NAME_WORD0_OFFSET);
+        boolean mismatch1 = inputWord1 != UNSAFE.getLong(slot + NAME_WORD1_OFFSET);
+        boolean mismatch = mismatch0 | mismatch1;
+        if (mismatch | inputNameLen <= NAMETAIL_OFFSET) {
+            return !mismatch;
+        }
+        if (UNSAFE.getInt(slot + NAMELEN_OFFSET) != inputNameLen) {
+            return false;
+        }
+        long nameTail = namesBase + UNSAFE.getInt(slot + TAIL_OFFSET) - NAMETAIL_OFFSET;
+        int i = NAMETAIL_OFFSET;
+        for (; i <= inputNameLen - Long.BYTES; i += Long.BYTES) {
+            if (UNSAFE.getLong(inputNameStart + i) != UNSAFE.getLong(nameTail + i)) {
+                return false;
+            }
+        }
+        return i == inputNameLen || lastInputWord == UNSAFE.getLong(nameTail + i);
+    }
+
+    static void observe(long slot, int temperature) {
+        UNSAFE.putLong(slot + SUM_OFFSET, UNSAFE.getLong(slot + SUM_OFFSET) + temperature);
+        UNSAFE.putInt(slot + COUNT_OFFSET, UNSAFE.getInt(slot + COUNT_OFFSET) + 1);
+        UNSAFE.putInt(slot + MIN_OFFSET, Math.min(UNSAFE.getInt(slot + MIN_OFFSET), temperature));
+        UNSAFE.putInt(slot + MAX_OFFSET, Math.max(UNSAFE.getInt(slot + MAX_OFFSET), temperature));
+    }
+
+    // Like observe(), also counting the temperature in the station's histogram. Only
+    // for tables created with histograms.
+    void observeWithHistogram(long slot, int temperature) {
+        observe(slot, temperature);
+        long bucket = histogramsBase + (long) UNSAFE.getInt(slot + HISTOGRAM_OFFSET) * HISTOGRAM_SIZE
+                + (long) (temperature + HISTOGRAM_BIAS) * Integer.BYTES;
+        UNSAFE.putInt(bucket, UNSAFE.getInt(bucket) + 1);
+    }
+
+    // Replays the lookup of each station in the table as it is now, see HashStats
+    void addHashStats(HashStats totals) {
+        var stats = new HashStats();
+        for (int i = 0; i < capacity; i++) {
+            long slot = base + (long) i * SLOT_SIZE;
+            if (isEmpty(slot)) {
+                continue;
+            }
+            long hash = UNSAFE.getLong(slot + HASH_OFFSET);
+            long rows = UNSAFE.getInt(slot + COUNT_OFFSET);
+            int probeLength = (int) ((i - (hash & mask)) & mask) + 1;
+            int sameHashSlots = 0;
+            for (long pos = hash & mask; pos != i; pos = (pos + 1) & mask) {
+                if (UNSAFE.getLong(base + pos * SLOT_SIZE + HASH_OFFSET) == hash) {
+                    sameHashSlots++;
+                }
+            }
+            boolean fastPath = probeLength == 1 && UNSAFE.getInt(slot + NAMELEN_OFFSET) <= NAMETAIL_OFFSET;
+            stats.stations++;
+            stats.rows += rows;
+            stats.rowsByProbeLength[Math.min(probeLength, HashStats.MAX_PROBE_LENGTH) - 1] += rows;
+            stats.probes += probeLength * rows;
+            if (!fastPath) {
+                stats.slowPathRows += rows;
+                stats.nameEqualsCalls += (sameHashSlots + 1) * rows;
+            }
+            if (sameHashSlots > 0) {
+                stats.sameHashStations++;
+            }
+        }
+        totals.add(stats);
+    }
+
+    StationStats[] exportStats() {
+        var stats = new StationStats[size];
+        int[] n = { 0 };
+        exportStats((group, stationStats) -> stats[n[0]++] = stationStats);
+        return stats;
+    }
+
+    interface StatsSink {
+        void accept(long group, StationStats stats);
+    }
+
+    void exportStats(StatsSink sink) {
+        for (int i = 0; i < capacity; i++) {
+            long slot = base + (long) i * SLOT_SIZE;
+            if (UNSAFE.getInt(slot + NAMELEN_OFFSET) != 0) {
+                var stats = new StationStats(exportNameString(slot),
+                        UNSAFE.getLong(slot + SUM_OFFSET), UNSAFE.getInt(slot + COUNT_OFFSET),
+                        UNSAFE.getInt(slot + MIN_OFFSET), UNSAFE.getInt(slot + MAX_OFFSET));
+                if (withHistograms) {
+                    stats.histogram = exportHistogram(UNSAFE.getInt(slot + HISTOGRAM_OFFSET));
+                }
+                sink.accept(UNSAFE.getLong(slot + GROUP_OFFSET), stats);
+            }
+        }
+    }
+
+    private long[] exportHistogram(int index) {
+        var histogram = new long[HISTOGRAM_BUCKETS];
+        long address = histogramsBase + (long) index * HISTOGRAM_SIZE;
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            histogram[i] = UNSAFE.getInt(address + (long) i * Integer.BYTES);
+        }
+        return histogram;
+    }
+
+    private String exportNameString(long slot) {
+        int nameLen = UNSAFE.getInt(slot + NAMELEN_OFFSET);
+        var bytes = new byte[nameLen - 1];
+        var buf = ByteBuffer.allocate(((nameLen - 1) / 8 + 1) * 8).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putLong(UNSAFE.getLong(slot + NAME_WORD0_OFFSET));
+        if (buf.hasRemaining()) {
+            buf.putLong(UNSAFE.getLong(slot + NAME_WORD1_OFFSET));
+        }
+        long nameTail = namesBase + UNSAFE.getInt(slot + TAIL_OFFSET);
+        for (int i = 0; buf.hasRemaining(); i += Long.BYTES) {
+            buf.putLong(UNSAFE.getLong(nameTail + i));
+        }
+        buf.flip();
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    void free() {
+        UNSAFE.freeMemory(rawBase);
+        UNSAFE.freeMemory(histogramsBase);
+        rawBase = 0;
+        base = 0;
+        histogramsBase = 0;
+    }
+}
@@ -0,0 +1,134 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+
+// Blog6's hot loop with the SWAR name scanning replaced by the Vector API: it finds
+// the semicolon 32 or 64 bytes at a time, and compares the long names against the
+// table with vector compares instead of nameEquals()'s word loop. The temperature
+// is at most 5 bytes long, so it's still parsed with SWAR.
+//
+// Needs --add-modules jdk.incubator.vector. Aggregator only loads this class after
+// checking supported(), and otherwise falls back to the SWAR ChunkProcessor.
+class VectorChunkProcessor extends Aggregator.ChunkProcessor {
+    // Vectors wider than 64 bytes could read past TAIL_PADDING
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED.vectorByteSize() > 64
+            ? ByteVector.SPECIES_512
+            : ByteVector.SPECIES_PREFERRED;
+    private static final int VECTOR_LEN = SPECIES.length();
+    // Lets us load vectors from raw addresses, like Unsafe.getLong()
+    private static final MemorySegment ALL = MemorySegment.NULL.reinterpret(Long.MAX_VALUE);
+
+    // On hardware with less than 256-bit vectors, SWAR is as fast or faster
+    static boolean supported() {
+        return SPECIES.vectorBitSize() >= 256;
+    }
+
+    VectorChunkProcessor(StationTable table, Aggregator.HashStrategy hashStrategy) {
+        super(table, SEQUENTIAL, hashStrategy);
+    }
+
+    private static ByteVector load(long address) {
+        return ByteVector.fromMemorySegment(SPECIES, ALL, address, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Keeps the lowest byteCount (1..8) bytes of the word
+    private static long maskBytes(long word, int byteCount) {
+        return word & (-1L >>> (Long.SIZE - (byteCount << 3)));
+    }
+
+    @Override
+    public void processChunk(long chunkBase, long chunkLimit) {
+        long cursor = chunkBase;
+        while (cursor < chunkLimit) {
+            long nameStartOffset = cursor;
+            int nameLen = 0;
+            while (true) {
+                int found = load(nameStartOffset + nameLen).compare(VectorOperators.EQ, (byte) ';').firstTrue();
+                nameLen += found;
+                if (found < VECTOR_LEN) {
+                    break;
+                }
+            }
+            // From here on, like Blog6, nameLen includes the semicolon
+            nameLen++;
+
+            long nameWord0 = Aggregator.getLong(nameStartOffset);
+            long nameWord1 = Aggregator.getLong(nameStartOffset + Long.BYTES);
+            long lastNameWord;
+            if (nameLen <= Long.BYTES) {
+                nameWord0 = maskBytes(nameWord0, nameLen);
+                nameWord1 = 0;
+                lastNameWord = nameWord0;
+            } else if (nameLen <= 2 * Long.BYTES) {
+                nameWord1 = maskBytes(nameWord1, nameLen - Long.BYTES);
+                lastNameWord = nameWord1;
+            } else {
+                int lastWordPos = (nameLen - 1) & -Long.BYTES;
+                lastNameWord = maskBytes(Aggregator.getLong(nameStartOffset + lastWordPos), nameLen - lastWordPos);
+            }
+
+            cursor += nameLen;
+            long tempWord = Aggregator.getLong(cursor);
+            int dotPos = Aggregator.dotPos(tempWord);
+            int temperature = Aggregator.parseTemperature(tempWord, dotPos);
+            cursor += (dotPos >> 3) + 3;
+
+            long hash = hash(nameStartOffset, nameLen, nameWord0, nameWord1, lastNameWord);
+            long acc;
+            if (nameLen <= 2 * Long.BYTES) {
+                acc = table.findAcc2(hash, nameWord0, nameWord1);
+                if (acc == 0) {
+                    acc = table.ensureAcc(hash, nameStartOffset, nameLen, nameWord0, nameWord1, lastNameWord);
+                }
+            } else {
+                longNameRows++;
+                acc = findLongName(hash, nameStartOffset, nameLen, nameWord0, nameWord1);
+                if (acc == 0) {
+                    acc = table.ensureAcc(hash, nameStartOffset, nameLen, nameWord0, nameWord1, lastNameWord);
+                }
+            }
+            observe(acc, temperature);
+        }
+    }
+
+    // Probes the table for a name longer than two words, returning 0 if it's not there
+    private long findLongName(long hash, long nameStartOffset, int nameLen, long nameWord0, long nameWord1) {
+        for (long slot = table.firstSlot(hash); !StationTable.isEmpty(slot); slot = table.nextSlot(slot)) {
+            if (StationTable.slotHash(slot) == hash
+                    && StationTable.slotNameLen(slot) == nameLen
+                    && StationTable.slotNameWord0(slot) == nameWord0
+                    && StationTable.slotNameWord1(slot) == nameWord1
+                    && tailEquals(nameStartOffset, table.slotNameTail(slot), nameLen - 1)) {
+                return slot;
+            }
+        }
+        return 0;
+    }
+
+    // Compares the name bytes from offset 16 up to nameLen, excluding the semicolon.
+    // Both sides stay readable for a full vector past the end of the name.
+    private static boolean tailEquals(long inputName, long storedName, int nameLen) {
+        for (int i = 2 * Long.BYTES; i < nameLen; i += VECTOR_LEN) {
+            var mismatch = load(inputName + i).compare(VectorOperators.NE, load(storedName + i))
+                                              .and(SPECIES.indexInRange(i, nameLen));
+            if (mismatch.anyTrue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static class WithHistograms extends VectorChunkProcessor {
+        WithHistograms(Aggregator.HashStrategy hashStrategy) {
+            super(new StationTable(true), hashStrategy);
+        }
+
+        @Override
+        void observe(long acc, int temperature) {
+            table.observeWithHistogram(acc, temperature);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+import java.util.List;
+import java.util.Locale;
+
+// Timing of one worker thread in the last run of an Aggregator. The slowest worker
+// sets the wall-clock time, so the interesting part is the tail: how long after
+// the first worker ran out of chunks the last one was still busy, and how long
+// its last chunk took.
+//
+// The row counts cost nothing on the fast path: the rows are summed from the
+// station table at the end, and only the long-name branch and the findAcc2() misses
+// count themselves. So it's always collected, and only printed on request.
+public class WorkerStats {
+    int index;
+    // The NUMA node the worker ran on, or -1 outside of the NUMA mode
+    int node = -1;
+    boolean pinned;
+    // Bytes of chunks taken from other nodes' regions
+    long stolenBytes;
+    int chunks;
+    long bytes;
+    long rows;
+    long longNameRows;
+    long slowPathRows;
+    long busyNanos;
+    long minChunkNanos = Long.MAX_VALUE;
+    long maxChunkNanos;
+    long lastChunkNanos;
+    // Since the start of the run
+    long finishNanos;
+
+    void chunkDone(long chunkBytes, long startNanos, long endNanos) {
+        chunks++;
+        bytes += chunkBytes;
+        busyNanos += endNanos - startNanos;
+        lastChunkNanos = endNanos - startNanos;
+        minChunkNanos = Math.min(minChunkNanos, lastChunkNanos);
+        maxChunkNanos = Math.max(maxChunkNanos, lastChunkNanos);
+    }
+
+    public int node() {
+        return node;
+    }
+
+    public long stolenBytes() {
+        return stolenBytes;
+    }
+
+    public int chunks() {
+        return chunks;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public long rows() {
+        return rows;
+    }
+
+    // Rows with names longer than 16 bytes
+    public long longNameRows() {
+        return longNameRows;
+    }
+
+    // Rows that found their station with findAcc2(), or with the vector engine's
+    // long-name probe, without going through ensureAcc()
+    public long fastPathRows() {
+        return rows - slowPathRows;
+    }
+
+    public long slowPathRows() {
+        return slowPathRows;
+    }
+
+    public double rowsPerSecond() {
+        return busyNanos == 0 ? 0 : rows / (busyNanos / 1e9);
+    }
+
+    public double bytesPerSecond() {
+        return busyNanos == 0 ? 0 : bytes / (busyNanos / 1e9);
+    }
+
+    public double minChunkMillis() {
+        return chunks == 0 ? 0 : minChunkNanos / 1e6;
+    }
+
+    public double meanChunkMillis() {
+        return chunks == 0 ? 0 : busyNanos / 1e6 / chunks;
+    }
+
+    public double maxChunkMillis() {
+        return maxChunkNanos / 1e6;
+    }
+
+    public double busyMillis() {
+        return busyNanos / 1e6;
+    }
+
+    public double lastChunkMillis() {
+        return lastChunkNanos / 1e6;
+    }
+
+    public double finishMillis() {
+        return finishNanos / 1e6;
+    }
+
+    // Returns the time between the first and the last worker finishing
+    public static double tailMillis(List<WorkerStats> workers) {
+        long first = Long.MAX_VALUE;
+        long last = 0;
+        for (var worker : workers) {
+            first = Math.min(first, worker.finishNanos);
+            last = Math.max(last, worker.finishNanos);
+        }
+        return workers.isEmpty() ? 0 : (last - first) / 1e6;
+    }
+
+    String toJson() {
+        return String.format(Locale.ROOT, "{\"index\": %d, \"node\": %d, \"pinned\": %b, "
+                        + "\"stolenBytes\": %d, \"chunks\": %d, \"bytes\": %d, \"rows\": %d, "
+                        + "\"fastPathRows\": %d, \"slowPathRows\": %d, \"longNameRows\": %d, "
+                        + "\"busyMillis\": %.3f, \"rowsPerSecond\": %.0f, \"bytesPerSecond\": %.0f, "
+                        + "\"minChunkMillis\": %.3f, \"meanChunkMillis\": %.3f, \"maxChunkMillis\": %.3f, "
+                        + "\"lastChunkMillis\": %.3f, \"finishMillis\": %.3f}",
+                index, node, pinned, stolenBytes, chunks, bytes, rows, fastPathRows(), slowPathRows, longNameRows,
+                busyMillis(), rowsPerSecond(), bytesPerSecond(), minChunkMillis(), meanChunkMillis(),
+                maxChunkMillis(), lastChunkMillis(), finishMillis());
+    }
+
+    @Override
+    public String toString() {
+        var nodeInfo = node < 0 ? "" : String.format("node %d%s, %,d MB stolen, ",
+                node, pinned ? "" : " (not pinned)", stolenBytes >> 20);
+        return String.format("%s%,d chunks, %,d MB, %,d rows (%.1f%% fast path, %.1f%% long names), "
+                        + "%,.1f M rows/s, %,.0f MB/s, busy %,.1f ms, chunks %,.2f/%,.2f/%,.2f ms min/mean/max, "
+                        + "last chunk %,.2f ms, finished at %,.1f ms",
+                nodeInfo, chunks, bytes >> 20, rows, percentOfRows(fastPathRows()), percentOfRows(longNameRows),
+                rowsPerSecond() / 1e6, bytesPerSecond() / 1e6, busyMillis(), minChunkMillis(), meanChunkMillis(),
+                maxChunkMillis(), lastChunkMillis(), finishMillis());
+    }
+
+    private double percentOfRows(long count) {
+        return rows == 0 ? 0 : 100.0 * count / rows;
+    }
+}
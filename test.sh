@@ -0,0 +1,16 @@
+#!/bin/bash
+# Builds the sources and the checks in test/ and runs every *Test class:
+#
+#     ./test.sh
+#
+# The checks are plain main() methods that throw on the first failure, so they need
+# nothing but JDK 21+ on the PATH.
+
+rm -rf out/test
+mkdir -p out/test
+javac --enable-preview --release 21 --add-modules jdk.incubator.vector -d out/test \
+    $(ls src/*.java | grep -v SimplifyData) test/*.java || exit 1
+
+for test in test/*Test.java; do
+    java --enable-preview --add-modules jdk.incubator.vector -cp out/test "$(basename "$test" .java)" || exit 1
+done
@@ -0,0 +1,74 @@
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.TreeMap;
+
+// Checks that DelimitedAggregator parses well-formed values on every path and rejects
+// malformed ones instead of adding them to the totals. Run with ./test.sh.
+public class DelimitedAggregatorTest {
+    public static void main(String[] args) {
+        validValues();
+        nonNumericValues();
+        crlfValues();
+        emptyValues();
+        System.out.println("DelimitedAggregatorTest passed");
+    }
+
+    // Each value shape of the fast paths and the byte-by-byte path
+    private static void validValues() {
+        var stats = aggregate("a;1.5\na;-12.5\na;7\na;.5\na;3.\na;-0.1\na;12345678.9\n", 1).get("a")[0];
+        check(stats.count() == 7, "count " + stats.count());
+        check(stats.sum() == 15 - 125 + 70 + 5 + 30 - 1 + 123456789, "sum " + stats.sum());
+        check(stats.min() == -12.5 && stats.max() == 12345678.9, "min/max " + stats);
+        var precise = aggregate("b;1.25\nb;-3\nb;0.5\n", 2).get("b")[0];
+        check(precise.sum() == 125 - 300 + 50, "sum " + precise.sum());
+    }
+
+    private static void nonNumericValues() {
+        for (var value : new String[] { "NaN", "abc", "1a", "1.2.3", "-", ".", "--1", "1-2", "+1", " 1", "1,5",
+                "12345678x" }) {
+            for (int precision : new int[] { 1, 2 }) {
+                checkRejected("a;" + value + "\n", precision);
+            }
+        }
+    }
+
+    private static void crlfValues() {
+        checkRejected("a;12.5\r\n", 1);
+        checkRejected("a;1.5\r\n", 2);
+        checkRejected("a;-12.5\r\n", 1);
+        checkRejected("a;12345678.5\r\n", 1);
+    }
+
+    private static void emptyValues() {
+        checkRejected("a;\n", 1);
+        checkRejected("a;1.5\nb;\n", 1);
+        checkRejected("a;\n", 0);
+    }
+
+    private static void checkRejected(String input, int precision) {
+        try {
+            var results = aggregate(input, precision);
+            throw new AssertionError("Accepted " + input.replace("\r", "\\r").replace("\n", "\\n") + " as " + results);
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private static TreeMap<String, StationStats[]> aggregate(String input, int precision) {
+        var bytes = input.getBytes(StandardCharsets.UTF_8);
+        try (var arena = Arena.ofConfined()) {
+            var segment = arena.allocate(bytes.length);
+            MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, 0, bytes.length);
+            return new DelimitedAggregator(';', 0).value(1, precision).threadCount(1).aggregate(segment);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}